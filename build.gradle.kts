@@ -249,6 +249,18 @@ shadowJar {
 val test = get<Test>("test")
 test {
     systemProperty("lwts.tweaker", "cubicchunks.tweaker.MixinTweakerServer")
+    // needs off-heap storage enabled, run by testOffHeap
+    exclude("cubicchunks/TestOffHeapStorageUnload.class")
+}
+
+val testOffHeap = tasks.create("testOffHeap", Test::class.java).apply {
+    description = "Runs tests that need off-heap cube storage enabled"
+    systemProperty("lwts.tweaker", "cubicchunks.tweaker.MixinTweakerServer")
+    systemProperty("cubicchunks.offHeapStorage", "true")
+    include("cubicchunks/TestOffHeapStorageUnload.class")
+}
+get<Task>("check")() {
+    dependsOn(testOffHeap)
 }
 
 val processResources = get<ProcessResources>("processResources")
@@ -0,0 +1,154 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import cubicchunks.util.IndexedPriorityQueue;
+import mcp.MethodsReturnNonnullByDefault;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares ordering of pending watchers in PlayerCubeMap by sorting with distance-computing comparator against
+ * {@link IndexedPriorityQueue}. Each invocation moves all simulated players, reorders the pending watchers and takes
+ * the closest ones, like one PlayerCubeMap tick with moving players.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class WatcherQueueBenchmark {
+
+    private static final int TAKEN_PER_TICK = 81 * 8;
+
+    @Param({"1", "8", "32"})
+    public int players;
+
+    @Param({"10000", "50000"})
+    public int watchers;
+
+    private SimPlayer[] simPlayers;
+    private List<SimWatcher> sortedList;
+    private IndexedPriorityQueue<SimWatcher> queue;
+    private Random rand;
+
+    @Setup
+    public void setup() {
+        rand = new Random(42);
+        simPlayers = new SimPlayer[players];
+        for (int i = 0; i < players; i++) {
+            simPlayers[i] = new SimPlayer(rand.nextInt(256) - 128, rand.nextInt(32) - 16, rand.nextInt(256) - 128);
+        }
+        sortedList = new ArrayList<>(watchers);
+        queue = new IndexedPriorityQueue<>(SimWatcher::getClosestPlayerDistance);
+        for (int i = 0; i < watchers; i++) {
+            SimWatcher watcher = new SimWatcher(rand.nextInt(64) - 32, rand.nextInt(64) - 32, rand.nextInt(64) - 32);
+            // every watcher is watched by a few players, like overlapping view distances
+            for (SimPlayer player : simPlayers) {
+                if (watcher.players.isEmpty() || rand.nextInt(4) == 0) {
+                    watcher.players.add(player);
+                }
+            }
+            sortedList.add(watcher);
+            queue.add(watcher);
+        }
+    }
+
+    @Benchmark
+    public void sortPerTick(Blackhole bh) {
+        movePlayers();
+        Collections.sort(sortedList, Comparator.comparingDouble(SimWatcher::getClosestPlayerDistance));
+        // take the closest ones and put them back to keep the size constant, like newly queued watchers
+        for (int i = 0; i < TAKEN_PER_TICK; i++) {
+            SimWatcher watcher = sortedList.remove(0);
+            bh.consume(watcher);
+            sortedList.add(watcher);
+        }
+    }
+
+    @Benchmark
+    public void priorityQueue(Blackhole bh) {
+        movePlayers();
+        queue.updateAll();
+        List<SimWatcher> taken = new ArrayList<>(TAKEN_PER_TICK);
+        for (int i = 0; i < TAKEN_PER_TICK; i++) {
+            SimWatcher watcher = queue.poll();
+            bh.consume(watcher);
+            taken.add(watcher);
+        }
+        taken.forEach(queue::add);
+    }
+
+    private void movePlayers() {
+        for (SimPlayer player : simPlayers) {
+            player.x += rand.nextInt(3) - 1;
+            player.y += rand.nextInt(3) - 1;
+            player.z += rand.nextInt(3) - 1;
+        }
+    }
+
+    private static class SimPlayer {
+
+        int x, y, z;
+
+        SimPlayer(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    private static class SimWatcher {
+
+        final int x, y, z;
+        final List<SimPlayer> players = new ArrayList<>();
+
+        SimWatcher(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        double getClosestPlayerDistance() {
+            double min = Double.MAX_VALUE;
+            for (SimPlayer player : players) {
+                double dx = player.x - x;
+                double dy = player.y - y;
+                double dz = player.z - z;
+                min = Math.min(min, dx * dx + dy * dy + dz * dz);
+            }
+            return min;
+        }
+    }
+}
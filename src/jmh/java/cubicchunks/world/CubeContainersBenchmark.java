@@ -0,0 +1,122 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world;
+
+import cubicchunks.util.ClassInheritanceMultiMapFactory;
+import cubicchunks.world.cube.Cube;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.item.EntityArmorStand;
+import net.minecraft.entity.item.EntityBoat;
+import net.minecraft.entity.item.EntityFallingBlock;
+import net.minecraft.entity.item.EntityItem;
+import net.minecraft.entity.item.EntityItemFrame;
+import net.minecraft.entity.item.EntityMinecartEmpty;
+import net.minecraft.entity.item.EntityPainting;
+import net.minecraft.entity.item.EntityTNTPrimed;
+import net.minecraft.entity.item.EntityXPOrb;
+import net.minecraft.entity.monster.EntityCreeper;
+import net.minecraft.entity.monster.EntityEnderman;
+import net.minecraft.entity.monster.EntitySkeleton;
+import net.minecraft.entity.monster.EntitySlime;
+import net.minecraft.entity.monster.EntitySpider;
+import net.minecraft.entity.monster.EntityWitch;
+import net.minecraft.entity.monster.EntityZombie;
+import net.minecraft.entity.passive.EntityBat;
+import net.minecraft.entity.passive.EntityChicken;
+import net.minecraft.entity.passive.EntityCow;
+import net.minecraft.entity.passive.EntityPig;
+import net.minecraft.entity.passive.EntitySheep;
+import net.minecraft.entity.passive.EntitySquid;
+import net.minecraft.entity.passive.EntityVillager;
+import net.minecraft.entity.passive.EntityWolf;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.entity.projectile.EntityArrow;
+import net.minecraft.entity.projectile.EntitySnowball;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.ClassInheritanceMultiMap;
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Compares memory kept by the entity, tile entity and light update containers of a cube without entities, tile
+ * entities or light updates, which is almost every loaded cube, when they are allocated with the cube and when they
+ * are allocated on first use.
+ * <p>
+ * Everything allocated by these benchmarks is kept by the cube for as long as it's loaded, so when run with
+ * {@code -prof gc}, {@code gc.alloc.rate.norm} is the retained size of the containers of one cube.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@State(Scope.Thread)
+public class CubeContainersBenchmark {
+
+    /**
+     * Entity classes usually seen on a server. A new ClassInheritanceMultiMap creates a lookup list for each class
+     * that has been looked up in any map before, so its size depends on how many of them there are.
+     */
+    private static final Class<?>[] KNOWN_ENTITY_CLASSES = {
+            EntityPlayerMP.class, EntityItem.class, EntityXPOrb.class, EntityItemFrame.class, EntityPainting.class,
+            EntityArmorStand.class, EntityMinecartEmpty.class, EntityBoat.class, EntityTNTPrimed.class,
+            EntityFallingBlock.class, EntityArrow.class, EntitySnowball.class, EntityZombie.class, EntitySkeleton.class,
+            EntityCreeper.class, EntitySpider.class, EntityEnderman.class, EntityWitch.class, EntitySlime.class,
+            EntityPig.class, EntityCow.class, EntitySheep.class, EntityChicken.class, EntityWolf.class, EntitySquid.class,
+            EntityBat.class, EntityVillager.class
+    };
+
+    @Setup
+    public void setup() {
+        ClassInheritanceMultiMap<Entity> map = ClassInheritanceMultiMapFactory.create(Entity.class);
+        for (Class<?> entityClass : KNOWN_ENTITY_CLASSES) {
+            // class literals don't initialize the classes, so no game bootstrap is needed
+            map.getByClass(entityClass).iterator();
+        }
+    }
+
+    @Benchmark
+    public void allocatedWithCube(Blackhole bh) {
+        bh.consume(new EntityContainer());
+        bh.consume(ClassInheritanceMultiMapFactory.<Entity>create(Entity.class));
+        bh.consume(new HashMap<BlockPos, TileEntity>());
+        bh.consume(new ConcurrentLinkedQueue<BlockPos>());
+        // the update array of LightingManager.CubeLightUpdateInfo, which can't be created without a cube
+        bh.consume(new boolean[Cube.SIZE * Cube.SIZE]);
+    }
+
+    @Benchmark
+    public void allocatedOnFirstUse(Blackhole bh) {
+        bh.consume(new EntityContainer());
+        bh.consume(Collections.<BlockPos, TileEntity>emptyMap());
+    }
+}
@@ -64,6 +64,14 @@ public class CommonEventHandler {
         }
     }
 
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload evt) {
+        ICubicWorld world = (ICubicWorld) evt.getWorld();
+        if (world.isCubicWorld() && !world.isRemote()) {
+            ((ICubicWorldServer) world).getCubeCache().onWorldUnload();
+        }
+    }
+
     @SubscribeEvent
     public void onWorldServerTick(TickEvent.WorldTickEvent evt) {
         ICubicWorldServer world = (ICubicWorldServer) evt.world;
@@ -167,7 +167,12 @@ public class CubicChunks {
                     "The upper boundary on the world. Blocks will not generate or load above this point."),
             CHUNK_G_C_INTERVAL(1, Integer.MAX_VALUE, 20 * 10,
                     "Chunk garbage collector update interval. A more lower it is - a more CPU load it will generate. "
-                            + "A more high it is - a more memory will be used to store cubes between launches.");
+                            + "A more high it is - a more memory will be used to store cubes between launches."),
+            MAX_CUBE_SEND_KB_PER_TICK(16, Integer.MAX_VALUE, 512,
+                    "The maximum amount of cube data in kilobytes sent to one player per tick. "
+                            + "Lowered automatically while the player's connection can't keep up."),
+            GENERATION_TICK_BUDGET(1, Integer.MAX_VALUE, 50,
+                    "The maximum amount of time in milliseconds per tick to spend generating cubes and columns for players.");
 
             private final int minValue;
             private final int maxValue;
@@ -261,6 +266,14 @@ public class CubicChunks {
             return Options.CHUNK_G_C_INTERVAL.value;
         }
 
+        public int getMaxCubeSendKbPerTick() {
+            return Options.MAX_CUBE_SEND_KB_PER_TICK.value;
+        }
+
+        public int getGenerationTickBudget() {
+            return Options.GENERATION_TICK_BUDGET.value;
+        }
+
         public static class GUI extends GuiConfig {
 
             public GUI(GuiScreen parent) {
@@ -0,0 +1,64 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.asm.mixin.core.common;
+
+import cubicchunks.world.cube.OffHeapBlockStorage;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+@Mixin(ExtendedBlockStorage.class)
+public class MixinExtendedBlockStorage {
+
+    /**
+     * Don't allocate block data for {@link OffHeapBlockStorage}, it's stored in native memory
+     */
+    @Nullable
+    @Redirect(method = "<init>", at = @At(value = "NEW", target = "net/minecraft/world/chunk/BlockStateContainer"), require = 1)
+    private BlockStateContainer newBlockStateContainer() {
+        return isOffHeap() ? null : new BlockStateContainer();
+    }
+
+    /**
+     * Don't allocate light arrays for {@link OffHeapBlockStorage}, they are stored in native memory
+     */
+    @Nullable
+    @Redirect(method = "<init>", at = @At(value = "NEW", target = "net/minecraft/world/chunk/NibbleArray"), require = 1)
+    private NibbleArray newNibbleArray() {
+        return isOffHeap() ? null : new NibbleArray();
+    }
+
+    private boolean isOffHeap() {
+        return (Object) this instanceof OffHeapBlockStorage;
+    }
+}
@@ -70,6 +70,7 @@ import org.spongepowered.asm.mixin.Overwrite;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import org.spongepowered.asm.mixin.injection.At;
 
 import java.util.Collection;
@@ -150,6 +151,16 @@ public abstract class MixinWorld implements ICubicWorld, IConfigUpdateListener {
         return (ICubeProvider) this.chunkProvider;
     }
 
+    /**
+     * Vanilla light updates on the client are skipped when the server is the only source of light values.
+     */
+    @Inject(method = "checkLightFor", at = @At("HEAD"), cancellable = true)
+    private void checkLightForSkipOnClient(EnumSkyBlock type, BlockPos pos, CallbackInfoReturnable<Boolean> cbi) {
+        if (this.isCubicWorld() && this.getLightingManager().isLightingDisabled()) {
+            cbi.setReturnValue(false);
+        }
+    }
+
     @Override public LightingManager getLightingManager() {
         if (!this.isCubicWorld()) {
             throw new NotCubicChunksWorldException();
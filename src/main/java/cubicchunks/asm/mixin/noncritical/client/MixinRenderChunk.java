@@ -24,26 +24,47 @@
 package cubicchunks.asm.mixin.noncritical.client;
 
 import cubicchunks.client.RenderCubeCache;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.cube.Cube;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.client.renderer.RenderGlobal;
+import net.minecraft.client.renderer.chunk.CompiledChunk;
 import net.minecraft.client.renderer.chunk.RenderChunk;
+import net.minecraft.client.renderer.chunk.SetVisibility;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.ChunkCache;
 import net.minecraft.world.World;
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 @Mixin(RenderChunk.class)
-public class MixinRenderChunk {
+public abstract class MixinRenderChunk {
 
     @Shadow private World world;
+    @Shadow @Final private BlockPos.MutableBlockPos position;
+    @Shadow @Final private RenderGlobal renderGlobal;
+    @Shadow @Final private Set<TileEntity> setTileEntities;
+    @Shadow private boolean needsUpdate;
+
+    @Shadow public abstract void stopCompileTask();
+
+    @Shadow public abstract void setCompiledChunk(CompiledChunk compiledChunk);
+
+    @Shadow public abstract void clearNeedsUpdate();
 
     @Inject(method = "createRegionRenderCache", at = @At(value = "HEAD"), remap = false, cancellable = true)
     protected void createCubicChunkCache(World world, BlockPos from, BlockPos to, int subtract, CallbackInfoReturnable<ChunkCache> cbi) {
@@ -52,4 +73,33 @@ public class MixinRenderChunk {
             cbi.cancel();
         }
     }
+
+    /**
+     * Empty cubes have no geometry, so instead of scheduling a compile task for them they get an empty compiled chunk
+     * visible from all sides right away. Block counts are recalculated when cube data is decoded, so checking for
+     * empty cube is cheap. Cubes not received yet are treated as empty, they are marked for update when they arrive.
+     */
+    @Inject(method = "isNeedsUpdate", at = @At(value = "HEAD"), cancellable = true)
+    private void skipEmptyCubeCompile(CallbackInfoReturnable<Boolean> cbi) {
+        if (!this.needsUpdate || !((ICubicWorld) world).isCubicWorld()) {
+            return;
+        }
+        Cube cube = ((ICubicWorld) world).getCubeCache().getLoadedCube(CubePos.fromBlockCoords(position));
+        if (cube != null && !cube.isEmpty()) {
+            return;
+        }
+        if (!this.setTileEntities.isEmpty()) {
+            this.renderGlobal.updateTileEntities(new ArrayList<>(this.setTileEntities), Collections.emptyList());
+            this.setTileEntities.clear();
+        }
+        SetVisibility visibility = new SetVisibility();
+        visibility.setAllVisible(true);
+        CompiledChunk compiledChunk = new CompiledChunk();
+        compiledChunk.setVisibility(visibility);
+
+        this.stopCompileTask();
+        this.setCompiledChunk(compiledChunk);
+        this.clearNeedsUpdate();
+        cbi.setReturnValue(false);
+    }
 }
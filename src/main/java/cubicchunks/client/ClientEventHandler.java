@@ -26,6 +26,7 @@ package cubicchunks.client;
 import cubicchunks.CubicChunks;
 import cubicchunks.CubicChunks.Config.Options;
 import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.ICubicWorldClient;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiButton;
@@ -49,13 +50,17 @@ public class ClientEventHandler {
     @SubscribeEvent
     public void onWorldClientTickEvent(TickEvent.ClientTickEvent evt) {
         ICubicWorld world = (ICubicWorld) FMLClientHandler.instance().getWorldClient();
-        //does the world exist? Is the game paused?
-        if (world == null || Minecraft.getMinecraft().isGamePaused()) {
+        //does the world exist?
+        if (world == null || evt.phase != TickEvent.Phase.END || !world.isCubicWorld()) {
             return;
         }
-        if (evt.phase == TickEvent.Phase.END && world.isCubicWorld()) {
-            world.tickCubicWorld();
+        // apply updates received from the server even when paused, the server may still be sending data
+        ((ICubicWorldClient) world).getCubeCache().flushUpdates();
+        //Is the game paused?
+        if (Minecraft.getMinecraft().isGamePaused()) {
+            return;
         }
+        world.tickCubicWorld();
     }
 
     @SubscribeEvent
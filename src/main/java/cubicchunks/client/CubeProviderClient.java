@@ -23,6 +23,7 @@
  */
 package cubicchunks.client;
 
+import cubicchunks.lighting.LightingManager;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.ReflectionUtil;
 import cubicchunks.util.XYZMap;
@@ -38,6 +39,12 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -50,6 +57,14 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
     @Nonnull private ICubicWorldClient world;
     @Nonnull private Cube blankCube;
     @Nonnull private XYZMap<Cube> cubeMap = new XYZMap<>(0.7f, 8000);
+    /**
+     * Cubes that received new data since the last tick. Render sections are marked for update once per tick
+     */
+    @Nonnull private final Set<CubePos> cubesToRenderUpdate = new HashSet<>();
+    /**
+     * Heightmap changes received since the last tick, light updates are scheduled once per tick for each column
+     */
+    @Nonnull private final Map<Column, HeightMapChange> heightMapChanges = new HashMap<>();
 
     public CubeProviderClient(ICubicWorldClient world) {
         super((World) world);
@@ -91,6 +106,17 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         return column;
     }
 
+    @Override
+    public void unloadChunk(int x, int z) {
+        // pending updates would keep the column and its cubes reachable, and there is nothing left to update
+        Column column = getLoadedColumn(x, z);
+        if (column != null) {
+            heightMapChanges.remove(column);
+        }
+        cubesToRenderUpdate.removeIf(pos -> pos.getX() == x && pos.getZ() == z);
+        super.unloadChunk(x, z);
+    }
+
     //===========================
     //========Cube stuff=========
     //===========================
@@ -115,6 +141,7 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
      * It is used when the server tells the client to unload a Cube.
      */
     public void unloadCube(CubePos pos) {
+        cubesToRenderUpdate.remove(pos);
         cubeMap.remove(pos.getX(), pos.getY(), pos.getZ());
         Column column = getLoadedColumn(pos.getX(), pos.getZ());
         if (column != null) {
@@ -146,6 +173,55 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
         return getLoadedCube(coords.getX(), coords.getY(), coords.getZ());
     }
 
+    /**
+     * Schedules render update of the given cube and its neighbors. The update is done in {@link #flushUpdates()}, so
+     * that render sections shared by many cubes received in the same tick are marked only once.
+     */
+    public void markCubeForRenderUpdate(CubePos pos) {
+        cubesToRenderUpdate.add(pos);
+    }
+
+    /**
+     * Schedules light update for heightmap change in the given column. Changes of the same block column are merged
+     * and applied in {@link #flushUpdates()}.
+     */
+    public void onHeightMapUpdate(Column column, int localX, int localZ, int oldHeight, int newHeight) {
+        heightMapChanges.computeIfAbsent(column, c -> new HeightMapChange())
+                .add(localZ << 4 | localX, Math.min(oldHeight, newHeight), Math.max(oldHeight, newHeight));
+    }
+
+    /**
+     * Applies heightmap and render updates received since the last call. Called once per client tick.
+     */
+    public void flushUpdates() {
+        if (!heightMapChanges.isEmpty()) {
+            LightingManager lightingManager = world.getLightingManager();
+            heightMapChanges.forEach((column, change) ->
+                    lightingManager.onHeightMapUpdate(column, change.minHeights, change.maxHeights));
+            heightMapChanges.clear();
+        }
+        if (!cubesToRenderUpdate.isEmpty()) {
+            // vanilla expands the range by one block, so changes in a cube also mark all of its neighbors
+            Set<CubePos> sections = new HashSet<>();
+            for (CubePos pos : cubesToRenderUpdate) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        for (int dz = -1; dz <= 1; dz++) {
+                            sections.add(pos.add(dx, dy, dz));
+                        }
+                    }
+                }
+            }
+            // shrink the range by one block so that each call marks exactly one section
+            for (CubePos pos : sections) {
+                world.markBlockRangeForRenderUpdate(
+                        pos.getMinBlockX() + 1, pos.getMinBlockY() + 1, pos.getMinBlockZ() + 1,
+                        pos.getMaxBlockX() - 1, pos.getMaxBlockY() - 1, pos.getMaxBlockZ() - 1);
+            }
+            cubesToRenderUpdate.clear();
+        }
+    }
+
     public Iterable<Chunk> getLoadedChunks() {
         return this.chunkMapping.values();
     }
@@ -158,4 +234,20 @@ public class CubeProviderClient extends ChunkProviderClient implements ICubeProv
                 .reduce((a, b) -> a + b)
                 .orElse(-1) + "/" + this.chunkMapping.size();
     }
+
+    private static class HeightMapChange {
+
+        final int[] minHeights = new int[Cube.SIZE * Cube.SIZE];
+        final int[] maxHeights = new int[Cube.SIZE * Cube.SIZE];
+
+        HeightMapChange() {
+            Arrays.fill(minHeights, Integer.MAX_VALUE);
+            Arrays.fill(maxHeights, Integer.MIN_VALUE);
+        }
+
+        void add(int index, int minHeight, int maxHeight) {
+            minHeights[index] = Math.min(minHeights[index], minHeight);
+            maxHeights[index] = Math.max(maxHeights[index], maxHeight);
+        }
+    }
 }
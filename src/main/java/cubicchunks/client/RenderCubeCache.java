@@ -43,14 +43,36 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Block access used to compile render chunks in cubic chunks worlds.
+ * <p>
+ * Block states and light values of the compiled region are copied into flat arrays the first time the cache is read,
+ * so that the many lookups done while building chunk geometry don't go through cubes and their storages. Caches are
+ * created on the client thread when compile tasks are queued, but read by the compile worker threads, each of which
+ * compiles one chunk at a time. The arrays are owned by the reading thread and reused by all caches read on it. A
+ * cache whose region has been overwritten by another one copies it again on its next read.
+ */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class RenderCubeCache extends ChunkCache {
 
+    private static final ThreadLocal<RegionBuffers> buffers = ThreadLocal.withInitial(RegionBuffers::new);
+
     protected int cubeY;
     @Nonnull private final Cube[][][] cubeArrays;
     @Nonnull private final ICubicWorld world;
 
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    /**
+     * Buffers holding the copied region, or null if it hasn't been copied yet
+     */
+    @Nullable private RegionBuffers regionBuffers;
+
     public RenderCubeCache(ICubicWorld world, BlockPos from, BlockPos to, int subtract) {
         super((World) world, from, to, subtract);
         this.world = world;
@@ -69,6 +91,87 @@ public class RenderCubeCache extends ChunkCache {
                 }
             }
         }
+
+        this.originX = from.getX();
+        this.originY = from.getY();
+        this.originZ = from.getZ();
+        this.sizeX = to.getX() - from.getX() + 1;
+        this.sizeY = to.getY() - from.getY() + 1;
+        this.sizeZ = to.getZ() - from.getZ() + 1;
+    }
+
+    /**
+     * @return buffers holding the copied region, copying it into buffers of the current thread if they don't hold it
+     */
+    private RegionBuffers getRegionBuffers() {
+        RegionBuffers regionBuffers = this.regionBuffers;
+        if (regionBuffers != null && regionBuffers.owner == this) {
+            return regionBuffers;
+        }
+        regionBuffers = buffers.get();
+        regionBuffers.ensureCapacity(sizeX * sizeY * sizeZ);
+        copyRegion(regionBuffers.blockStates, regionBuffers.light);
+        regionBuffers.owner = this;
+        this.regionBuffers = regionBuffers;
+        return regionBuffers;
+    }
+
+    private void copyRegion(IBlockState[] blockStates, byte[] light) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        IBlockState air = Blocks.AIR.getDefaultState();
+        int defaultLight = EnumSkyBlock.SKY.defaultLightValue << 4 | EnumSkyBlock.BLOCK.defaultLightValue;
+        for (int y = 0; y < sizeY; y++) {
+            int blockY = originY + y;
+            boolean inWorld = blockY >= world.getMinHeight() && blockY < world.getMaxHeight();
+            for (int z = 0; z < sizeZ; z++) {
+                int blockZ = originZ + z;
+                for (int x = 0; x < sizeX; x++) {
+                    int blockX = originX + x;
+                    int index = getIndex(x, y, z);
+                    Cube cube = getCachedCube(blockX, blockY, blockZ);
+                    if (cube == null) {
+                        blockStates[index] = air;
+                        light[index] = (byte) defaultLight;
+                        continue;
+                    }
+                    pos.setPos(blockX, blockY, blockZ);
+                    blockStates[index] = inWorld ? cube.getBlockState(pos) : air;
+                    int skyLight = cube.getLightFor(EnumSkyBlock.SKY, pos);
+                    int blockLight = cube.getLightFor(EnumSkyBlock.BLOCK, pos);
+                    light[index] = (byte) (skyLight << 4 | blockLight);
+                }
+            }
+        }
+    }
+
+    private int getIndex(int x, int y, int z) {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    /**
+     * @return index of the position in the copied region, or -1 if it's outside of it
+     */
+    private int getRegionIndex(BlockPos pos) {
+        int x = pos.getX() - originX;
+        int y = pos.getY() - originY;
+        int z = pos.getZ() - originZ;
+        if (x < 0 || x >= sizeX || y < 0 || y >= sizeY || z < 0 || z >= sizeZ) {
+            return -1;
+        }
+        return getIndex(x, y, z);
+    }
+
+    @Nullable
+    private Cube getCachedCube(int blockX, int blockY, int blockZ) {
+        int arrayX = Coords.blockToCube(blockX) - this.chunkX;
+        int arrayY = Coords.blockToCube(blockY) - this.cubeY;
+        int arrayZ = Coords.blockToCube(blockZ) - this.chunkZ;
+        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
+                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
+                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
+            return null;
+        }
+        return this.cubeArrays[arrayX][arrayY][arrayZ];
     }
 
     @SideOnly(Side.CLIENT)
@@ -101,6 +204,10 @@ public class RenderCubeCache extends ChunkCache {
 
     @Override
     public IBlockState getBlockState(BlockPos pos) {
+        int index = getRegionIndex(pos);
+        if (index >= 0) {
+            return getRegionBuffers().blockStates[index];
+        }
         if (pos.getY() < world.getMinHeight() | pos.getY() >= world.getMaxHeight()) {
             return Blocks.AIR.getDefaultState();
         }
@@ -142,23 +249,16 @@ public class RenderCubeCache extends ChunkCache {
             }
             return max;
         }
-        int arrayX = Coords.blockToCube(pos.getX()) - this.chunkX;
-        int arrayY = Coords.blockToCube(pos.getY()) - this.cubeY;
-        int arrayZ = Coords.blockToCube(pos.getZ()) - this.chunkZ;
-        if (arrayX < 0 || arrayX >= this.cubeArrays.length ||
-                arrayY < 0 || arrayY >= this.cubeArrays[arrayX].length ||
-                arrayZ < 0 || arrayZ >= this.cubeArrays[arrayX][arrayY].length) {
-            return type.defaultLightValue;
-        }
-        Cube cube = this.cubeArrays[arrayX][arrayY][arrayZ];
-        if (cube == null) {
-            return type.defaultLightValue;
-        }
-        return cube.getLightFor(type, pos);
+        return this.getLightFor(type, pos);
     }
 
     @Override
     public int getLightFor(EnumSkyBlock type, BlockPos pos) {
+        int index = getRegionIndex(pos);
+        if (index >= 0) {
+            byte light = getRegionBuffers().light[index];
+            return type == EnumSkyBlock.SKY ? (light >> 4) & 0xF : light & 0xF;
+        }
         if (pos.getY() < world.getMinHeight() && pos.getY() >= world.getMaxHeight()) {
             return type.defaultLightValue;
         }
@@ -198,4 +298,21 @@ public class RenderCubeCache extends ChunkCache {
         IBlockState state = getBlockState(pos);
         return state.getBlock().isSideSolid(state, this, pos, side);
     }
+
+    private static class RegionBuffers {
+
+        @Nonnull IBlockState[] blockStates = new IBlockState[0];
+        @Nonnull byte[] light = new byte[0];
+        /**
+         * The cache whose region the buffers currently hold
+         */
+        @Nullable RenderCubeCache owner;
+
+        void ensureCapacity(int size) {
+            if (blockStates.length < size) {
+                blockStates = new IBlockState[size];
+                light = new byte[size];
+            }
+        }
+    }
 }
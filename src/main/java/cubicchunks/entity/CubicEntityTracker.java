@@ -24,8 +24,11 @@
 package cubicchunks.entity;
 
 import com.google.common.collect.Lists;
+import cubicchunks.util.AddressTools;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.cube.Cube;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import net.minecraft.crash.CrashReport;
 import net.minecraft.crash.CrashReportCategory;
 import net.minecraft.crash.ICrashReportDetail;
@@ -33,16 +36,39 @@ import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLiving;
 import net.minecraft.entity.EntityTracker;
 import net.minecraft.entity.EntityTrackerEntry;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.network.play.server.SPacketEntityAttach;
 import net.minecraft.network.play.server.SPacketSetPassengers;
 import net.minecraft.util.ReportedException;
 import net.minecraft.world.WorldServer;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class CubicEntityTracker extends EntityTracker {
 
+    /**
+     * Tracked entries by address of the cube their entity is in, so that per-cube lookups don't go over all entries.
+     * Updated when entities enter another cube, see {@link #entityChangedCube(Entity)}, and every tick for entities
+     * moved without being added to a cube.
+     */
+    private final TLongObjectMap<Set<CubicEntityTrackerEntry>> entriesByCube = new TLongObjectHashMap<>();
+    /**
+     * Players by address of the cube they are in, rebuilt at the start of every tick. Players are removed when they are
+     * untracked, so that entities tracked later in the tick aren't checked against players that left the world.
+     */
+    private final TLongObjectMap<List<EntityPlayerMP>> playersByCube = new TLongObjectHashMap<>();
+    /**
+     * Entries tracking each player, so that they can be untracked when the player moves away without searching all entries
+     */
+    private final Map<EntityPlayerMP, Set<CubicEntityTrackerEntry>> entriesTrackingPlayer = new HashMap<>();
+
     public CubicEntityTracker(ICubicWorldServer worldServer) {
         super((WorldServer) worldServer);
     }
@@ -51,7 +77,11 @@ public class CubicEntityTracker extends EntityTracker {
         List<Entity> list = Lists.<Entity>newArrayList();
         List<Entity> list1 = Lists.<Entity>newArrayList();
 
-        for (EntityTrackerEntry entitytrackerentry : this.entries) {
+        Set<CubicEntityTrackerEntry> entriesInCube = this.entriesByCube.get(AddressTools.getAddress(cubeIn.getX(), cubeIn.getY(), cubeIn.getZ()));
+        if (entriesInCube == null) {
+            return;
+        }
+        for (EntityTrackerEntry entitytrackerentry : entriesInCube) {
 
             Entity entity = entitytrackerentry.getTrackedEntity();
             if (entity != player &&
@@ -83,16 +113,216 @@ public class CubicEntityTracker extends EntityTracker {
         }
     }
 
+    /**
+     * Same as vanilla, except that entities and players that moved are checked only against players and entities
+     * in nearby cubes, see {@link #updateNearbyPlayers(CubicEntityTrackerEntry)} and {@link #updateNearbyEntries(EntityPlayerMP)}
+     */
+    @Override
+    public void tick() {
+        this.playersByCube.clear();
+        for (EntityPlayer player : this.world.playerEntities) {
+            long address = AddressTools.getAddress(player.chunkCoordX, player.chunkCoordY, player.chunkCoordZ);
+            List<EntityPlayerMP> playersInCube = this.playersByCube.get(address);
+            if (playersInCube == null) {
+                playersInCube = new ArrayList<>(1);
+                this.playersByCube.put(address, playersInCube);
+            }
+            playersInCube.add((EntityPlayerMP) player);
+        }
+
+        List<EntityPlayerMP> movedPlayers = new ArrayList<>();
+        for (EntityTrackerEntry entry : this.entries) {
+            entry.updatePlayerList(this.world.playerEntities);
+            if (entry.playerEntitiesUpdated && entry.getTrackedEntity() instanceof EntityPlayerMP) {
+                movedPlayers.add((EntityPlayerMP) entry.getTrackedEntity());
+            }
+        }
+        for (EntityPlayerMP player : movedPlayers) {
+            updateNearbyEntries(player);
+        }
+
+        for (EntityTrackerEntry entry : this.entries) {
+            updateIndex((CubicEntityTrackerEntry) entry);
+        }
+    }
+
+    /**
+     * Moves the entity's entry to the index bucket of the cube the entity is in now. Called when the entity is added to
+     * a cube.
+     */
+    public void entityChangedCube(Entity entity) {
+        EntityTrackerEntry entry = (EntityTrackerEntry) this.trackedEntityHashTable.lookup(entity.getEntityId());
+        if (entry != null) {
+            updateIndex((CubicEntityTrackerEntry) entry);
+        }
+    }
+
+    @Override
+    public void untrack(Entity entity) {
+        EntityTrackerEntry entry = (EntityTrackerEntry) this.trackedEntityHashTable.lookup(entity.getEntityId());
+        super.untrack(entity);
+        if (entry != null) {
+            CubicEntityTrackerEntry cubicEntry = (CubicEntityTrackerEntry) entry;
+            removeFromIndex(cubicEntry);
+            for (EntityPlayerMP player : cubicEntry.trackingPlayers) {
+                onTrackingChanged(cubicEntry, player, false);
+            }
+        }
+        if (entity instanceof EntityPlayerMP) {
+            removeFromPlayerIndex((EntityPlayerMP) entity);
+        }
+    }
+
+    @Override
+    public void removePlayerFromTrackers(EntityPlayerMP player) {
+        super.removePlayerFromTrackers(player);
+        removeFromPlayerIndex(player);
+    }
+
+    private void removeFromPlayerIndex(EntityPlayerMP player) {
+        this.playersByCube.retainEntries((address, playersInCube) -> {
+            playersInCube.remove(player);
+            return !playersInCube.isEmpty();
+        });
+    }
+
+    /**
+     * Updates visibility of the entry's entity for players in nearby cubes and players already tracking it.
+     */
+    void updateNearbyPlayers(CubicEntityTrackerEntry entry) {
+        Entity entity = entry.getTrackedEntity();
+        Set<EntityPlayerMP> players = new HashSet<>(entry.trackingPlayers);
+        forEachBucketInRange(this.playersByCube, entity.chunkCoordX, entity.chunkCoordY, entity.chunkCoordZ,
+                getSearchRadius(entry.getTrackingRange()), players::addAll);
+        for (EntityPlayerMP player : players) {
+            // buckets are rebuilt once per tick, don't let players that left this world since then track the entity
+            if (player.world != this.world && !entry.trackingPlayers.contains(player)) {
+                continue;
+            }
+            entry.updatePlayerEntity(player);
+        }
+    }
+
+    /**
+     * Updates visibility of entities in nearby cubes and entities already tracked by the player.
+     */
+    private void updateNearbyEntries(EntityPlayerMP player) {
+        int radius = getSearchRadius(this.maxTrackingDistanceThreshold);
+        List<CubicEntityTrackerEntry> entries = new ArrayList<>();
+        forEachBucketInRange(this.entriesByCube, player.chunkCoordX, player.chunkCoordY, player.chunkCoordZ, radius, entries::addAll);
+        Set<CubicEntityTrackerEntry> trackingEntries = this.entriesTrackingPlayer.get(player);
+        if (trackingEntries != null) {
+            for (CubicEntityTrackerEntry entry : trackingEntries) {
+                long address = entry.indexedCubeAddress;
+                if (!isInRange(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address),
+                        player.chunkCoordX, player.chunkCoordY, player.chunkCoordZ, radius)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        for (CubicEntityTrackerEntry entry : entries) {
+            if (entry.getTrackedEntity() != player) {
+                entry.updatePlayerEntity(player);
+            }
+        }
+    }
+
+    void onTrackingChanged(CubicEntityTrackerEntry entry, EntityPlayerMP player, boolean isTracking) {
+        Set<CubicEntityTrackerEntry> trackingEntries = this.entriesTrackingPlayer.get(player);
+        if (isTracking) {
+            if (trackingEntries == null) {
+                trackingEntries = new HashSet<>();
+                this.entriesTrackingPlayer.put(player, trackingEntries);
+            }
+            trackingEntries.add(entry);
+        } else if (trackingEntries != null) {
+            trackingEntries.remove(entry);
+            if (trackingEntries.isEmpty()) {
+                this.entriesTrackingPlayer.remove(player);
+            }
+        }
+    }
+
+    /**
+     * Returns how many cubes away from an entity a player can see it with the given tracking range.
+     * One extra cube covers indexes being up to a tick behind entity positions.
+     */
+    private static int getSearchRadius(int trackingRange) {
+        return trackingRange / Cube.SIZE + 2;
+    }
+
+    /**
+     * Calls the consumer for all buckets within radius cubes of the given cube. Probes every position in range, or goes
+     * over all buckets if there are fewer of them.
+     */
+    private static <T> void forEachBucketInRange(TLongObjectMap<T> buckets, int cubeX, int cubeY, int cubeZ, int radius, Consumer<T> consumer) {
+        long diameter = radius * 2L + 1;
+        if (diameter * diameter * diameter < buckets.size()) {
+            for (int x = cubeX - radius; x <= cubeX + radius; x++) {
+                for (int y = cubeY - radius; y <= cubeY + radius; y++) {
+                    for (int z = cubeZ - radius; z <= cubeZ + radius; z++) {
+                        T bucket = buckets.get(AddressTools.getAddress(x, y, z));
+                        if (bucket != null) {
+                            consumer.accept(bucket);
+                        }
+                    }
+                }
+            }
+        } else {
+            buckets.forEachEntry((address, bucket) -> {
+                if (isInRange(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address), cubeX, cubeY, cubeZ, radius)) {
+                    consumer.accept(bucket);
+                }
+                return true;
+            });
+        }
+    }
+
+    private static boolean isInRange(int x1, int y1, int z1, int x2, int y2, int z2, int radius) {
+        return Math.abs(x1 - x2) <= radius && Math.abs(y1 - y2) <= radius && Math.abs(z1 - z2) <= radius;
+    }
+
+    private void updateIndex(CubicEntityTrackerEntry entry) {
+        long address = entry.getCubeAddress();
+        if (address != entry.indexedCubeAddress) {
+            removeFromIndex(entry);
+            addToIndex(entry, address);
+        }
+    }
+
+    private void addToIndex(CubicEntityTrackerEntry entry, long address) {
+        entry.indexedCubeAddress = address;
+        Set<CubicEntityTrackerEntry> entriesInCube = this.entriesByCube.get(address);
+        if (entriesInCube == null) {
+            entriesInCube = new HashSet<>();
+            this.entriesByCube.put(address, entriesInCube);
+        }
+        entriesInCube.add(entry);
+    }
+
+    private void removeFromIndex(CubicEntityTrackerEntry entry) {
+        Set<CubicEntityTrackerEntry> entriesInCube = this.entriesByCube.get(entry.indexedCubeAddress);
+        if (entriesInCube == null) {
+            return;
+        }
+        entriesInCube.remove(entry);
+        if (entriesInCube.isEmpty()) {
+            this.entriesByCube.remove(entry.indexedCubeAddress);
+        }
+    }
+
     @Override
     public void track(Entity entityIn, int trackingRange, final int updateFrequency, boolean sendVelocityUpdates) {
         try {
             if (this.trackedEntityHashTable.containsItem(entityIn.getEntityId())) {
                 throw new IllegalStateException("Entity is already tracked!");
             }
-            EntityTrackerEntry entitytrackerentry =
-                    new CubicEntityTrackerEntry(entityIn, trackingRange, this.maxTrackingDistanceThreshold, updateFrequency, sendVelocityUpdates);
+            CubicEntityTrackerEntry entitytrackerentry =
+                    new CubicEntityTrackerEntry(this, entityIn, trackingRange, this.maxTrackingDistanceThreshold, updateFrequency,
+                            sendVelocityUpdates);
             this.entries.add(entitytrackerentry);
             this.trackedEntityHashTable.addKey(entityIn.getEntityId(), entitytrackerentry);
+            addToIndex(entitytrackerentry, entitytrackerentry.getCubeAddress());
             entitytrackerentry.updatePlayerEntities(this.world.playerEntities);
         } catch (Throwable throwable) {
             CrashReport crashreport = CrashReport.makeCrashReport(throwable, "Adding entity to track");
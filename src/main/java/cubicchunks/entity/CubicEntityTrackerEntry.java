@@ -23,15 +23,75 @@
  */
 package cubicchunks.entity;
 
+import cubicchunks.util.AddressTools;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityTrackerEntry;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.entity.player.EntityPlayerMP;
 
+import java.util.List;
+
 public class CubicEntityTrackerEntry extends EntityTrackerEntry {
 
-    public CubicEntityTrackerEntry(Entity entityIn, int rangeIn, int maxRangeIn, int updateFrequencyIn,
+    /**
+     * Address of the cube this entry is indexed under in {@link CubicEntityTracker}
+     */
+    long indexedCubeAddress;
+
+    private final CubicEntityTracker tracker;
+
+    public CubicEntityTrackerEntry(CubicEntityTracker tracker, Entity entityIn, int rangeIn, int maxRangeIn, int updateFrequencyIn,
             boolean sendVelocityUpdatesIn) {
         super(entityIn, rangeIn, maxRangeIn, updateFrequencyIn, sendVelocityUpdatesIn);
+        this.tracker = tracker;
+    }
+
+    /**
+     * Returns address of the cube the tracked entity is in, see {@link AddressTools#getAddress(int, int, int)}
+     */
+    long getCubeAddress() {
+        return AddressTools.getAddress(trackedEntity.chunkCoordX, trackedEntity.chunkCoordY, trackedEntity.chunkCoordZ);
+    }
+
+    int getTrackingRange() {
+        return Math.min(this.range, this.maxRange);
+    }
+
+    /**
+     * Only players near the entity, or already tracking it, can change visibility. These are found by the tracker
+     * instead of checking every player in the world.
+     */
+    @Override
+    public void updatePlayerEntities(List<EntityPlayer> players) {
+        this.tracker.updateNearbyPlayers(this);
+    }
+
+    @Override
+    public void updatePlayerEntity(EntityPlayerMP playerMP) {
+        boolean wasTracking = this.trackingPlayers.contains(playerMP);
+        super.updatePlayerEntity(playerMP);
+        boolean isTracking = this.trackingPlayers.contains(playerMP);
+        if (isTracking != wasTracking) {
+            this.tracker.onTrackingChanged(this, playerMP, isTracking);
+        }
+    }
+
+    @Override
+    public void removeFromTrackedPlayers(EntityPlayerMP playerMP) {
+        boolean wasTracking = this.trackingPlayers.contains(playerMP);
+        super.removeFromTrackedPlayers(playerMP);
+        if (wasTracking) {
+            this.tracker.onTrackingChanged(this, playerMP, false);
+        }
+    }
+
+    @Override
+    public void removeTrackedPlayerSymmetric(EntityPlayerMP playerMP) {
+        boolean wasTracking = this.trackingPlayers.contains(playerMP);
+        super.removeTrackedPlayerSymmetric(playerMP);
+        if (wasTracking) {
+            this.tracker.onTrackingChanged(this, playerMP, false);
+        }
     }
 
     @Override
@@ -39,7 +99,7 @@ public class CubicEntityTrackerEntry extends EntityTrackerEntry {
         double d0 = playerMP.posX - (double) this.encodedPosX / 4096.0D;
         double d1 = playerMP.posZ - (double) this.encodedPosZ / 4096.0D;
         double d2 = playerMP.posY - (double) this.encodedPosY / 4096.0D;
-        int i = Math.min(this.range, this.maxRange);
+        int i = getTrackingRange();
 
         return d0 >= (double) (-i) &&
                 d0 <= (double) i &&
@@ -53,6 +53,13 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class LightingManager {
 
+    /**
+     * When enabled, the client doesn't calculate light at all and uses only light values sent by the server.
+     * The server always sends light changes, so this is safe to enable on any client.
+     */
+    public static final boolean SERVER_AUTHORITATIVE_LIGHTING =
+            System.getProperty("cubicchunks.serverAuthoritativeLighting", "false").equalsIgnoreCase("true");
+
     private static final int MAX_CLIENT_LIGHT_SCAN_DEPTH = 64;
     @Nonnull private ICubicWorld world;
     @Nonnull private LightPropagator lightPropagator = new LightPropagator();
@@ -127,6 +134,10 @@ public class LightingManager {
         int maxY = Math.max(oldTopY, newTopY);
         assert minY <= maxY;
 
+        if (isLightingDisabled()) {
+            // heightmap prediction above is still useful, but light will come from the server
+            return;
+        }
         this.columnSkylightUpdate(UpdateType.IMMEDIATE, column, localX, minY, maxY, localZ);
     }
 
@@ -177,6 +188,9 @@ public class LightingManager {
     }
 
     public void onHeightMapUpdate(Column column, int localX, int localZ, int oldHeight, int newHeight) {
+        if (isLightingDisabled()) {
+            return;
+        }
         int minCubeY = blockToCube(Math.min(oldHeight, newHeight));
         int maxCubeY = blockToCube(Math.max(oldHeight, newHeight));
         column.getLoadedCubes().stream().filter(cube -> cube.getY() >= minCubeY && cube.getY() <= maxCubeY).forEach(cube -> {
@@ -184,6 +198,32 @@ public class LightingManager {
         });
     }
 
+    /**
+     * Batched version of {@link #onHeightMapUpdate(Column, int, int, int, int)} for many block columns of one column.
+     * Loaded cubes are iterated only once.
+     *
+     * @param column the column with changed heightmap
+     * @param minHeights lowest height seen for each block column since the last update, indexed by
+     * {@code localZ << 4 | localX}. Block columns with minimum height above maximum height are unchanged.
+     * @param maxHeights highest height seen for each block column since the last update
+     */
+    public void onHeightMapUpdate(Column column, int[] minHeights, int[] maxHeights) {
+        if (isLightingDisabled()) {
+            return;
+        }
+        for (Cube cube : column.getLoadedCubes()) {
+            int cubeY = cube.getY();
+            for (int i = 0; i < minHeights.length; i++) {
+                if (minHeights[i] > maxHeights[i]) {
+                    continue;
+                }
+                if (cubeY >= blockToCube(minHeights[i]) && cubeY <= blockToCube(maxHeights[i])) {
+                    markCubeBlockColumnForUpdate(cube, i & 0xF, i >> 4);
+                }
+            }
+        }
+    }
+
     /**
      * Updates light for given block region.
      * <p>
@@ -213,6 +253,13 @@ public class LightingManager {
         return true;
     }
 
+    /**
+     * @return true if this is a client world that uses light values calculated by the server
+     */
+    public boolean isLightingDisabled() {
+        return SERVER_AUTHORITATIVE_LIGHTING && world.isRemote();
+    }
+
     private enum UpdateType {
         IMMEDIATE, QUEUED
     }
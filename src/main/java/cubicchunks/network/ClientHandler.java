@@ -25,26 +25,33 @@ package cubicchunks.network;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.client.CubeProviderClient;
-import cubicchunks.lighting.LightingManager;
+import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ClientHeightMap;
 import cubicchunks.world.ICubicWorldClient;
-import cubicchunks.world.IHeightMap;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.BlankCube;
 import cubicchunks.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.network.NetHandlerPlayClient;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.INetHandler;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.network.play.server.SPacketUpdateTileEntity;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.IThreadListener;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.text.ITextComponent;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
@@ -62,13 +69,46 @@ public class ClientHandler implements INetHandler {
         // nothing to do
     }
 
+    // Cube data is decoded into storages on the network thread, the main thread only swaps in finished storages
+
     public void handle(PacketCube packet) {
+        ExtendedBlockStorage storage = decodeStorage(packet);
         IThreadListener taskQueue = Minecraft.getMinecraft();
         if (!taskQueue.isCallingFromMinecraftThread()) {
-            taskQueue.addScheduledTask(() -> handle(packet));
+            taskQueue.addScheduledTask(() -> handleCube(packet, storage));
             return;
         }
 
+        handleCube(packet, storage);
+    }
+
+    public void handle(PacketCubeBatch packet) {
+        List<PacketCube> cubes = packet.getCubes();
+        List<ExtendedBlockStorage> storages = new ArrayList<>(cubes.size());
+        for (PacketCube cube : cubes) {
+            storages.add(decodeStorage(cube));
+        }
+        Runnable task = () -> {
+            for (int i = 0; i < cubes.size(); i++) {
+                handleCube(cubes.get(i), storages.get(i));
+            }
+        };
+        IThreadListener taskQueue = Minecraft.getMinecraft();
+        if (!taskQueue.isCallingFromMinecraftThread()) {
+            taskQueue.addScheduledTask(task);
+            return;
+        }
+
+        task.run();
+    }
+
+    @Nullable
+    private static ExtendedBlockStorage decodeStorage(PacketCube packet) {
+        ByteBuf buf = WorldEncoder.createByteBufForRead(packet.getData());
+        return WorldEncoder.decodeCubeStorage(new PacketBuffer(buf), packet.getCubePos().getY());
+    }
+
+    private void handleCube(PacketCube packet, @Nullable ExtendedBlockStorage storage) {
         ICubicWorldClient worldClient = (ICubicWorldClient) Minecraft.getMinecraft().world;
         CubeProviderClient cubeCache = worldClient.getCubeCache();
 
@@ -88,10 +128,12 @@ public class ClientHandler implements INetHandler {
             cube = column.getCube(cubePos.getY()); // cube update
         }
 
-        byte[] data = packet.getData();
-        ByteBuf buf = WorldEncoder.createByteBufForRead(data);
-        WorldEncoder.decodeCube(new PacketBuffer(buf), cube);
-        cube.markForRenderUpdate();
+        // if the cube came from the server, it must be live
+        cube.setClientCube();
+        if (storage != null) {
+            cube.setStorage(storage);
+        }
+        cubeCache.markCubeForRenderUpdate(cubePos);
 
         for (NBTTagCompound tag : packet.getTileEntityTags()) {
             int blockX = tag.getInteger("x");
@@ -104,18 +146,6 @@ public class ClientHandler implements INetHandler {
                 tileEntity.handleUpdateTag(tag);
             }
         }
-
-        IHeightMap heightMap = column.getOpacityIndex();
-        LightingManager lightManager = worldClient.getLightingManager();
-        for (int localX = 0; localX < Cube.SIZE; localX++) {
-            for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
-                int oldHeight = heightMap.getTopBlockY(localX, localZ);
-                int newHeight = packet.height(localX, localZ);
-                if (oldHeight != newHeight) {
-                    lightManager.onHeightMapUpdate(column, localX, localZ, oldHeight, newHeight);
-                }
-            }
-        }
     }
 
     public void handle(PacketColumn packet) {
@@ -138,6 +168,40 @@ public class ClientHandler implements INetHandler {
         WorldEncoder.decodeColumn(new PacketBuffer(buf), column);
     }
 
+    public void handle(final PacketHeightMapUpdate packet) {
+        IThreadListener taskQueue = Minecraft.getMinecraft();
+        if (!taskQueue.isCallingFromMinecraftThread()) {
+            taskQueue.addScheduledTask(() -> handle(packet));
+            return;
+        }
+
+        ICubicWorldClient worldClient = (ICubicWorldClient) Minecraft.getMinecraft().world;
+        CubeProviderClient cubeCache = worldClient.getCubeCache();
+
+        ChunkPos chunkPos = packet.getColumnPos();
+        Column column = cubeCache.getLoadedColumn(chunkPos.chunkXPos, chunkPos.chunkZPos);
+        if (column == null) {
+            CubicChunks.LOGGER.error("Ignored heightmap update to unloaded column {}", chunkPos);
+            return;
+        }
+
+        ClientHeightMap index = (ClientHeightMap) column.getOpacityIndex();
+        int[] indexes = packet.getIndexes();
+        int[] heights = packet.getHeights();
+        for (int i = 0; i < indexes.length; i++) {
+            int x = indexes[i] & 0xF;
+            int z = indexes[i] >> 4;
+            int height = heights[i];
+
+            int oldHeight = index.getTopBlockY(x, z);
+            if (oldHeight == height) {
+                continue;
+            }
+            index.setHeight(x, z, height);
+            cubeCache.onHeightMapUpdate(column, x, z, oldHeight, height);
+        }
+    }
+
     public void handle(final PacketUnloadCube packet) {
         IThreadListener taskQueue = Minecraft.getMinecraft();
         if (!taskQueue.isCallingFromMinecraftThread()) {
@@ -183,7 +247,6 @@ public class ClientHandler implements INetHandler {
         }
 
         ClientHeightMap index = (ClientHeightMap) cube.getColumn().getOpacityIndex();
-        LightingManager lm = worldClient.getLightingManager();
         for (int hmapUpdate : packet.heightValues) {
             int x = hmapUpdate & 0xF;
             int z = (hmapUpdate >> 4) & 0xF;
@@ -191,9 +254,11 @@ public class ClientHandler implements INetHandler {
             int height = hmapUpdate >> 8;
 
             int oldHeight = index.getTopBlockY(x, z);
+            if (oldHeight == height) {
+                continue;
+            }
             index.setHeight(x, z, height);
-
-            lm.onHeightMapUpdate(cube.getColumn(), x, z, oldHeight, height);
+            cubeCache.onHeightMapUpdate(cube.getColumn(), x, z, oldHeight, height);
         }
         // apply the update
         for (int i = 0; i < packet.localAddresses.length; i++) {
@@ -201,5 +266,54 @@ public class ClientHandler implements INetHandler {
             worldClient.invalidateRegionAndSetBlock(pos, packet.blockStates[i]);
         }
         cube.getTileEntityMap().values().forEach(TileEntity::updateContainingBlockInfo);
+        // block entity updates bundled with the blocks, let vanilla handle them as if they were sent separately
+        NetHandlerPlayClient connection = Minecraft.getMinecraft().getConnection();
+        if (connection != null) {
+            for (int i = 0; i < packet.tileEntityAddresses.length; i++) {
+                BlockPos pos = cube.localAddressToBlockPos(packet.tileEntityAddresses[i]);
+                connection.handleUpdateTileEntity(
+                        new SPacketUpdateTileEntity(pos, packet.tileEntityTypes[i], packet.tileEntityTags[i]));
+            }
+        }
+    }
+
+    public void handle(final PacketCubeLightUpdate packet) {
+        IThreadListener taskQueue = Minecraft.getMinecraft();
+        if (!taskQueue.isCallingFromMinecraftThread()) {
+            taskQueue.addScheduledTask(() -> handle(packet));
+            return;
+        }
+
+        ICubicWorldClient worldClient = (ICubicWorldClient) Minecraft.getMinecraft().world;
+        CubeProviderClient cubeCache = worldClient.getCubeCache();
+
+        Cube cube = cubeCache.getCube(packet.getCubePos());
+        if (cube instanceof BlankCube) {
+            CubicChunks.LOGGER.error("Ignored light update to blank cube {}", packet.getCubePos());
+            return;
+        }
+        ExtendedBlockStorage storage = cube.getStorage();
+        if (storage == null) {
+            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
+                    !cube.getCubicWorld().getProvider().hasNoSky());
+            cube.setStorage(storage);
+        }
+        byte[] data = packet.getData();
+        int offset = copyLayers(data, storage.getSkylightArray(), packet.getSkyLightLayers(), 0);
+        copyLayers(data, storage.getBlocklightArray(), packet.getBlockLightLayers(), offset);
+        cubeCache.markCubeForRenderUpdate(cube.getCoords());
+    }
+
+    private static int copyLayers(byte[] data, @Nullable NibbleArray array, int layers, int offset) {
+        for (int y = 0; y < Cube.SIZE; y++) {
+            if ((layers & (1 << y)) != 0) {
+                if (array != null) {
+                    System.arraycopy(data, offset, array.getData(), y * PacketCubeLightUpdate.LAYER_BYTES,
+                            PacketCubeLightUpdate.LAYER_BYTES);
+                }
+                offset += PacketCubeLightUpdate.LAYER_BYTES;
+            }
+        }
+        return offset;
     }
 }
@@ -0,0 +1,216 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import cubicchunks.util.CubePos;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.OffHeapBlockStorage;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable copy of everything needed to encode a cube for clients. Taken on the server thread, encoding it with
+ * {@link WorldEncoder} can then be done on any thread.
+ * <p>
+ * Taking the snapshot only copies arrays: the packed block data and palette of the block state container are copied
+ * as they are, and serialized in the form sent to clients only when the snapshot is encoded.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+class CubeSnapshot {
+
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+
+    private final CubePos cubePos;
+    private final boolean hasSky;
+    private final boolean hasStorage;
+    private final boolean isEmpty;
+    // packed block data of the BlockStateContainer, null for empty cubes
+    @Nullable private final long[] blockStorage;
+    private final int bitsPerBlock;
+    // global state ID of each palette entry, null for empty cubes and if the global registry is used as palette
+    @Nullable private final int[] palette;
+    @Nullable private final byte[] blockLight;
+    @Nullable private final byte[] skyLight;
+    private final List<NBTTagCompound> tileEntityTags;
+
+    CubeSnapshot(Cube cube) {
+        this(cube.getCoords(), cube.getStorage(), !cube.getCubicWorld().getProvider().hasNoSky(),
+                getTileEntityTags(cube.getTileEntityMap().values()));
+    }
+
+    @SuppressWarnings("deprecation")
+    CubeSnapshot(CubePos cubePos, @Nullable ExtendedBlockStorage storage, boolean hasSky, List<NBTTagCompound> tileEntityTags) {
+        this.cubePos = cubePos;
+        this.hasSky = hasSky;
+        this.hasStorage = storage != null;
+        this.isEmpty = storage == null || storage.isEmpty();
+        this.tileEntityTags = Collections.unmodifiableList(new ArrayList<>(tileEntityTags));
+        if (storage == null) {
+            this.blockStorage = null;
+            this.bitsPerBlock = 0;
+            this.palette = null;
+            this.blockLight = null;
+            this.skyLight = null;
+            return;
+        }
+        if (this.isEmpty) {
+            this.blockStorage = null;
+            this.bitsPerBlock = 0;
+            this.palette = null;
+        } else {
+            BlockStateContainer data = storage.getData();
+            long[] longs = data.storage.getBackingLongArray();
+            // off-heap storages return a new container that nothing else modifies
+            this.blockStorage = storage instanceof OffHeapBlockStorage ? longs : longs.clone();
+            this.bitsPerBlock = longs.length * Long.SIZE / BLOCKS;
+            this.palette = this.bitsPerBlock <= 8 ? getPaletteIds(data) : null;
+        }
+        this.blockLight = storage.getBlocklightArray().getData().clone();
+        this.skyLight = hasSky ? storage.getSkylightArray().getData().clone() : null;
+    }
+
+    /**
+     * Same entries as written by {@link net.minecraft.world.chunk.BlockStatePaletteLinear} and
+     * {@link net.minecraft.world.chunk.BlockStatePaletteHashMap}: IDs are assigned from 0 without gaps.
+     */
+    @SuppressWarnings("deprecation")
+    private static int[] getPaletteIds(BlockStateContainer data) {
+        int maxSize = 1 << data.storage.getBackingLongArray().length * Long.SIZE / BLOCKS;
+        int[] ids = new int[maxSize];
+        int size = 0;
+        IBlockState state;
+        while (size < maxSize && (state = data.palette.getBlockState(size)) != null) {
+            ids[size++] = Block.BLOCK_STATE_IDS.get(state);
+        }
+        return Arrays.copyOf(ids, size);
+    }
+
+    private static List<NBTTagCompound> getTileEntityTags(Collection<TileEntity> tileEntities) {
+        List<NBTTagCompound> tags = new ArrayList<>(tileEntities.size());
+        for (TileEntity te : tileEntities) {
+            tags.add(te.getUpdateTag());
+        }
+        return tags;
+    }
+
+    CubePos getCubePos() {
+        return cubePos;
+    }
+
+    boolean hasSky() {
+        return hasSky;
+    }
+
+    boolean hasStorage() {
+        return hasStorage;
+    }
+
+    boolean isEmpty() {
+        return isEmpty;
+    }
+
+    /**
+     * Serializes the block data the same way as {@link BlockStateContainer#write(PacketBuffer)}: bits per entry,
+     * palette (or a zero if the global registry is used) and the packed entries.
+     *
+     * @return serialized block data, or null for empty cubes
+     */
+    @Nullable byte[] getBlockData() {
+        if (blockStorage == null) {
+            return null;
+        }
+        PacketBuffer out = new PacketBuffer(Unpooled.buffer(1 + (palette == null ? 1 : 5 * (palette.length + 1))
+                + 5 + blockStorage.length * Long.BYTES));
+        out.writeByte(bitsPerBlock);
+        if (palette == null) {
+            out.writeVarInt(0);
+        } else {
+            out.writeVarInt(palette.length);
+            for (int id : palette) {
+                out.writeVarInt(id);
+            }
+        }
+        out.writeLongArray(blockStorage);
+        byte[] data = new byte[out.readableBytes()];
+        out.readBytes(data);
+        return data;
+    }
+
+    @Nullable byte[] getBlockLight() {
+        return blockLight;
+    }
+
+    @Nullable byte[] getSkyLight() {
+        return skyLight;
+    }
+
+    List<NBTTagCompound> getTileEntityTags() {
+        return tileEntityTags;
+    }
+
+    /**
+     * Decodes block state IDs from the packed block data, indexed by {@code y << 8 | z << 4 | x}.
+     *
+     * @return state ID of each block, or null for empty cubes
+     */
+    @Nullable int[] decodeBlockStateIds() {
+        if (blockStorage == null) {
+            return null;
+        }
+        int bits = bitsPerBlock;
+        long[] longs = blockStorage;
+        long mask = (1L << bits) - 1;
+        int[] ids = new int[BLOCKS];
+        for (int i = 0; i < ids.length; i++) {
+            int bitIndex = i * bits;
+            int start = bitIndex / 64;
+            int end = ((i + 1) * bits - 1) / 64;
+            int offset = bitIndex % 64;
+            long value = longs[start] >>> offset;
+            if (start != end) {
+                value |= longs[end] << (64 - offset);
+            }
+            int entry = (int) (value & mask);
+            ids[i] = palette == null ? entry : palette[entry];
+        }
+        return ids;
+    }
+}
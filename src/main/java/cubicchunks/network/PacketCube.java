@@ -24,23 +24,28 @@
 package cubicchunks.network;
 
 import com.google.common.collect.Iterables;
+import cubicchunks.CubicChunks;
 import cubicchunks.util.CubePos;
-import cubicchunks.world.IHeightMap;
 import cubicchunks.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.network.PacketBuffer;
-import net.minecraft.tileentity.TileEntity;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -49,31 +54,60 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class PacketCube implements IMessage {
 
-    private int[] heightMap;
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    /**
+     * Encodes cube snapshots, so that the server thread only needs to copy cube data
+     */
+    private static final ExecutorService encoderThreadPool = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            r -> {
+                Thread thread = new Thread(r, "Cube Encoder Thread #" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
     private CubePos cubePos;
     private byte[] data;
     private List<NBTTagCompound> tileEntityTags;
+    /**
+     * Encoded form of this packet, written once when the packet is created on server side so that the same packet
+     * can be sent to any number of players without encoding the cube again. Encoding is done from a snapshot of the
+     * cube on {@link #encoderThreadPool}.
+     */
+    @Nullable private CompletableFuture<byte[]> encoded;
 
     public PacketCube() {
     }
 
     public PacketCube(Cube cube) {
         this.cubePos = cube.getCoords();
-        this.data = new byte[WorldEncoder.getEncodedSize(cube)];
-        PacketBuffer out = new PacketBuffer(WorldEncoder.createByteBufForWrite(this.data));
-
-        WorldEncoder.encodeCube(out, cube);
-
-        Collection<TileEntity> tileEntities = cube.getTileEntityMap().values();
-        this.tileEntityTags = new ArrayList<>(tileEntities.size());
-        this.tileEntityTags.addAll(tileEntities.stream().map(TileEntity::getUpdateTag).collect(Collectors.toList()));
-        this.heightMap = new int[Cube.SIZE * Cube.SIZE];
-        IHeightMap heightmap = cube.getColumn().getOpacityIndex();
-        for (int localX = 0; localX < Cube.SIZE; localX++) {
-            for (int localZ = 0; localZ < Cube.SIZE; localZ++) {
-                this.heightMap[index(localX, localZ)] = heightmap.getTopBlockY(localX, localZ);
-            }
-        }
+        CubeSnapshot snapshot = new CubeSnapshot(cube);
+        this.encoded = CompletableFuture.supplyAsync(() -> encode(snapshot), encoderThreadPool);
+    }
+
+    /**
+     * Encodes the given snapshot into the same bytes {@link #toBytes(ByteBuf)} writes. Can be called from any thread.
+     */
+    static byte[] encode(CubeSnapshot snapshot) {
+        ByteBuf dataBuf = Unpooled.buffer();
+        WorldEncoder.encodeCube(new PacketBuffer(dataBuf), snapshot);
+        byte[] data = new byte[dataBuf.readableBytes()];
+        dataBuf.readBytes(data);
+
+        ByteBuf buf = Unpooled.buffer(data.length + 64);
+        writeFields(buf, snapshot.getCubePos(), data, snapshot.getTileEntityTags());
+        byte[] encoded = new byte[buf.readableBytes()];
+        buf.readBytes(encoded);
+        return encoded;
+    }
+
+    /**
+     * Has encoding of this packet finished? If it didn't, {@link #toBytes(ByteBuf)} and {@link #getEncodedSize()}
+     * block until it does, so they should be called only on encoded packets from the server thread.
+     */
+    public boolean isEncoded() {
+        return this.encoded == null || this.encoded.isDone();
     }
 
     @Override
@@ -86,25 +120,50 @@ public class PacketCube implements IMessage {
         for (int i = 0; i < numTiles; i++) {
             this.tileEntityTags.add(ByteBufUtils.readTag(buf));
         }
-        this.heightMap = new int[Cube.SIZE * Cube.SIZE];
-        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
-            heightMap[i] = buf.readInt();
-        }
     }
 
     @Override
     public void toBytes(ByteBuf buf) {
+        if (this.encoded != null) {
+            buf.writeBytes(getEncoded(this.encoded));
+            return;
+        }
+        writeFields(buf, this.cubePos, this.data, this.tileEntityTags);
+    }
+
+    private static void writeFields(ByteBuf buf, CubePos cubePos, byte[] data, List<NBTTagCompound> tileEntityTags) {
         buf.writeInt(cubePos.getX());
         buf.writeInt(cubePos.getY());
         buf.writeInt(cubePos.getZ());
-        buf.writeInt(this.data.length);
-        buf.writeBytes(this.data);
-        buf.writeInt(this.tileEntityTags.size());
-        for (NBTTagCompound tag : this.tileEntityTags) {
+        buf.writeInt(data.length);
+        buf.writeBytes(data);
+        buf.writeInt(tileEntityTags.size());
+        for (NBTTagCompound tag : tileEntityTags) {
             ByteBufUtils.writeTag(buf, tag);
         }
-        for (int i = 0; i < Cube.SIZE * Cube.SIZE; i++) {
-            buf.writeInt(heightMap[i]);
+    }
+
+    public int getEncodedSize() {
+        if (this.encoded != null) {
+            return getEncoded(this.encoded).length;
+        }
+        ByteBuf buf = Unpooled.buffer();
+        writeFields(buf, this.cubePos, this.data, this.tileEntityTags);
+        return buf.readableBytes();
+    }
+
+    /**
+     * Get the encoded packet, waiting for encoding to finish. If encoding failed, the cube is sent without storage
+     * instead of failing on the network thread.
+     */
+    private byte[] getEncoded(CompletableFuture<byte[]> encoded) {
+        try {
+            return encoded.join();
+        } catch (CompletionException | CancellationException e) {
+            CubicChunks.LOGGER.error("Failed to encode cube at " + this.cubePos + ", sending it without blocks", e);
+            byte[] fallback = encode(new CubeSnapshot(this.cubePos, null, false, Collections.emptyList()));
+            this.encoded = CompletableFuture.completedFuture(fallback);
+            return fallback;
         }
     }
 
@@ -120,10 +179,6 @@ public class PacketCube implements IMessage {
         return Iterables.unmodifiableIterable(this.tileEntityTags);
     }
 
-    int height(int localX, int localZ) {
-        return heightMap[index(localX, localZ)];
-    }
-
     public static class Handler extends AbstractClientMessageHandler<PacketCube> {
 
         @Nullable @Override
@@ -132,8 +187,4 @@ public class PacketCube implements IMessage {
             return null;
         }
     }
-
-    private static int index(int x, int z) {
-        return x << 4 | z;
-    }
 }
@@ -0,0 +1,99 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Multiple cubes sent to one player in a single message, to avoid per-packet overhead when many (often small or
+ * empty) cubes are sent at once.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeBatch implements IMessage {
+
+    private final List<PacketCube> cubes = new ArrayList<>();
+    private int encodedSize = Integer.BYTES;
+
+    public PacketCubeBatch() {
+    }
+
+    public void addCube(PacketCube cube) {
+        this.cubes.add(cube);
+        this.encodedSize += cube.getEncodedSize();
+    }
+
+    public boolean isEmpty() {
+        return this.cubes.isEmpty();
+    }
+
+    /**
+     * @return the amount of bytes this message will take when sent
+     */
+    public int getEncodedSize() {
+        return this.encodedSize;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        int count = buf.readInt();
+        for (int i = 0; i < count; i++) {
+            PacketCube cube = new PacketCube();
+            cube.fromBytes(buf);
+            this.cubes.add(cube);
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(this.cubes.size());
+        for (PacketCube cube : this.cubes) {
+            cube.toBytes(buf);
+        }
+    }
+
+    List<PacketCube> getCubes() {
+        return Collections.unmodifiableList(this.cubes);
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketCubeBatch> {
+
+        @Nullable @Override
+        public IMessage handleClientMessage(EntityPlayer player, PacketCubeBatch message, MessageContext ctx) {
+            ClientHandler.getInstance().handle(message);
+            return null;
+        }
+    }
+}
@@ -32,18 +32,35 @@ import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.cube.Cube;
 import gnu.trove.TShortCollection;
+import gnu.trove.impl.Constants;
+import gnu.trove.list.TShortList;
+import gnu.trove.list.array.TShortArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import io.netty.buffer.ByteBuf;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.play.server.SPacketUpdateTileEntity;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraftforge.fml.common.network.ByteBufUtils;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+/**
+ * Multiple block changes in one cube. Block states are written as indices into a palette of states used by the
+ * changes, local addresses are sorted and delta-encoded, and tile entity updates for the changed blocks are bundled
+ * with the blocks so that a burst of changes costs a single message.
+ */
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public class PacketCubeBlockChange implements IMessage {
@@ -52,6 +69,9 @@ public class PacketCubeBlockChange implements IMessage {
     CubePos cubePos;
     short[] localAddresses;
     IBlockState[] blockStates;
+    short[] tileEntityAddresses;
+    int[] tileEntityTypes;
+    NBTTagCompound[] tileEntityTags;
 
     public PacketCubeBlockChange() {
     }
@@ -59,7 +79,11 @@ public class PacketCubeBlockChange implements IMessage {
     public PacketCubeBlockChange(Cube cube, TShortCollection localAddresses) {
         this.cubePos = cube.getCoords();
         this.localAddresses = localAddresses.toArray();
+        // sorted addresses are delta-encoded in toBytes
+        Arrays.sort(this.localAddresses);
         this.blockStates = new IBlockState[localAddresses.size()];
+        List<SPacketUpdateTileEntity> tileEntityPackets = new ArrayList<>();
+        TShortList tileEntityAddresses = new TShortArrayList();
         int i = localAddresses.size() - 1;
         IntSet xzAddresses = new IntHashSet();
         for (; i >= 0; i--) {
@@ -69,6 +93,15 @@ public class PacketCubeBlockChange implements IMessage {
             int z = AddressTools.getLocalZ(localAddress);
             this.blockStates[i] = cube.getBlockState(x, y, z);
             xzAddresses.add(x | z << 4);
+
+            if (this.blockStates[i].getBlock().hasTileEntity(this.blockStates[i])) {
+                TileEntity te = cube.getCubicWorld().getTileEntity(cube.localAddressToBlockPos(localAddress));
+                SPacketUpdateTileEntity tePacket = te == null ? null : te.getUpdatePacket();
+                if (tePacket != null) {
+                    tileEntityPackets.add(tePacket);
+                    tileEntityAddresses.add((short) localAddress);
+                }
+            }
         }
         this.heightValues = new int[xzAddresses.size()];
         i = 0;
@@ -78,25 +111,50 @@ public class PacketCubeBlockChange implements IMessage {
             heightValues[i] = v.value;
             i++;
         }
+        this.tileEntityAddresses = tileEntityAddresses.toArray();
+        this.tileEntityTypes = new int[tileEntityPackets.size()];
+        this.tileEntityTags = new NBTTagCompound[tileEntityPackets.size()];
+        for (i = 0; i < tileEntityPackets.size(); i++) {
+            this.tileEntityTypes[i] = tileEntityPackets.get(i).getTileEntityType();
+            this.tileEntityTags[i] = tileEntityPackets.get(i).getNbtCompound();
+        }
     }
 
     @SuppressWarnings("deprecation") // Forge thinks we are trying to register a block or something :P
     @Override
     public void fromBytes(ByteBuf in) {
         this.cubePos = new CubePos(in.readInt(), in.readInt(), in.readInt());
-        short numBlocks = in.readShort();
+
+        IBlockState[] palette = new IBlockState[readVarInt(in, 4)];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
+        }
+
+        int numBlocks = readVarInt(in, 3);
         localAddresses = new short[numBlocks];
         blockStates = new IBlockState[numBlocks];
-
+        int localAddress = 0;
         for (int i = 0; i < numBlocks; i++) {
-            localAddresses[i] = in.readShort();
-            blockStates[i] = Block.BLOCK_STATE_IDS.getByValue(readVarInt(in, 4));
+            localAddress += readVarInt(in, 2);
+            localAddresses[i] = (short) localAddress;
+            blockStates[i] = palette[readVarInt(in, 3)];
         }
+
         int numHmapChanges = in.readUnsignedByte();
         heightValues = new int[numHmapChanges];
         for (int i = 0; i < numHmapChanges; i++) {
             heightValues[i] = in.readInt();
         }
+
+        int numTileEntities = readVarInt(in, 3);
+        tileEntityAddresses = new short[numTileEntities];
+        tileEntityTypes = new int[numTileEntities];
+        tileEntityTags = new NBTTagCompound[numTileEntities];
+        for (int i = 0; i < numTileEntities; i++) {
+            tileEntityAddresses[i] = in.readShort();
+            tileEntityTypes[i] = readVarInt(in, 5);
+            tileEntityTags[i] = ByteBufUtils.readTag(in);
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -105,15 +163,47 @@ public class PacketCubeBlockChange implements IMessage {
         out.writeInt(cubePos.getX());
         out.writeInt(cubePos.getY());
         out.writeInt(cubePos.getZ());
-        out.writeShort(localAddresses.length);
+
+        TObjectIntMap<IBlockState> palette = new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+        int[] paletteIndexes = new int[blockStates.length];
+        for (int i = 0; i < blockStates.length; i++) {
+            int index = palette.get(blockStates[i]);
+            if (index < 0) {
+                index = palette.size();
+                palette.put(blockStates[i], index);
+            }
+            paletteIndexes[i] = index;
+        }
+        int[] paletteIds = new int[palette.size()];
+        palette.forEachEntry((state, index) -> {
+            paletteIds[index] = Block.BLOCK_STATE_IDS.get(state);
+            return true;
+        });
+        ByteBufUtils.writeVarInt(out, paletteIds.length, 4);
+        for (int id : paletteIds) {
+            ByteBufUtils.writeVarInt(out, id, 4);
+        }
+
+        ByteBufUtils.writeVarInt(out, localAddresses.length, 3);
+        int lastAddress = 0;
         for (int i = 0; i < localAddresses.length; i++) {
-            out.writeShort(localAddresses[i]);
-            ByteBufUtils.writeVarInt(out, Block.BLOCK_STATE_IDS.get(blockStates[i]), 4);
+            // addresses are sorted, so the difference is small and positive
+            ByteBufUtils.writeVarInt(out, localAddresses[i] - lastAddress, 2);
+            lastAddress = localAddresses[i];
+            ByteBufUtils.writeVarInt(out, paletteIndexes[i], 3);
         }
+
         out.writeByte(heightValues.length);
         for (int v : heightValues) {
             out.writeInt(v);
         }
+
+        ByteBufUtils.writeVarInt(out, tileEntityAddresses.length, 3);
+        for (int i = 0; i < tileEntityAddresses.length; i++) {
+            out.writeShort(tileEntityAddresses[i]);
+            ByteBufUtils.writeVarInt(out, tileEntityTypes[i], 5);
+            ByteBufUtils.writeTag(out, tileEntityTags[i]);
+        }
     }
 
     public static class Handler extends AbstractClientMessageHandler<PacketCubeBlockChange> {
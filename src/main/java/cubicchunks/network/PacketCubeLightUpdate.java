@@ -0,0 +1,132 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import cubicchunks.util.CubePos;
+import cubicchunks.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Light values of a cube that changed without any block change. Only the 16x16 block layers where light changed are
+ * sent, each layer is a 128 byte section of the light {@link NibbleArray}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketCubeLightUpdate implements IMessage {
+
+    static final int LAYER_BYTES = Cube.SIZE * Cube.SIZE / 2;
+
+    private CubePos cubePos;
+    // bit y set - layer y is sent
+    private int skyLightLayers;
+    private int blockLightLayers;
+    private byte[] data;
+
+    public PacketCubeLightUpdate() {
+    }
+
+    public PacketCubeLightUpdate(Cube cube, int skyLightLayers, int blockLightLayers) {
+        this.cubePos = cube.getCoords();
+        ExtendedBlockStorage storage = cube.getStorage();
+        NibbleArray skyLight = storage == null ? null : storage.getSkylightArray();
+        NibbleArray blockLight = storage == null ? null : storage.getBlocklightArray();
+        this.skyLightLayers = skyLight == null ? 0 : skyLightLayers & 0xFFFF;
+        this.blockLightLayers = blockLight == null ? 0 : blockLightLayers & 0xFFFF;
+        this.data = new byte[(Integer.bitCount(this.skyLightLayers) + Integer.bitCount(this.blockLightLayers)) * LAYER_BYTES];
+
+        int offset = copyLayers(skyLight, this.skyLightLayers, 0);
+        copyLayers(blockLight, this.blockLightLayers, offset);
+    }
+
+    private int copyLayers(@Nullable NibbleArray array, int layers, int offset) {
+        if (array == null) {
+            return offset;
+        }
+        byte[] src = array.getData();
+        for (int y = 0; y < Cube.SIZE; y++) {
+            if ((layers & (1 << y)) != 0) {
+                System.arraycopy(src, y * LAYER_BYTES, this.data, offset, LAYER_BYTES);
+                offset += LAYER_BYTES;
+            }
+        }
+        return offset;
+    }
+
+    public boolean isEmpty() {
+        return skyLightLayers == 0 && blockLightLayers == 0;
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.cubePos = new CubePos(buf.readInt(), buf.readInt(), buf.readInt());
+        this.skyLightLayers = buf.readUnsignedShort();
+        this.blockLightLayers = buf.readUnsignedShort();
+        this.data = new byte[(Integer.bitCount(this.skyLightLayers) + Integer.bitCount(this.blockLightLayers)) * LAYER_BYTES];
+        buf.readBytes(this.data);
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(cubePos.getX());
+        buf.writeInt(cubePos.getY());
+        buf.writeInt(cubePos.getZ());
+        buf.writeShort(skyLightLayers);
+        buf.writeShort(blockLightLayers);
+        buf.writeBytes(data);
+    }
+
+    CubePos getCubePos() {
+        return cubePos;
+    }
+
+    int getSkyLightLayers() {
+        return skyLightLayers;
+    }
+
+    int getBlockLightLayers() {
+        return blockLightLayers;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketCubeLightUpdate> {
+
+        @Nullable @Override
+        public IMessage handleClientMessage(EntityPlayer player, PacketCubeLightUpdate message, MessageContext ctx) {
+            ClientHandler.getInstance().handle(message);
+            return null;
+        }
+    }
+}
@@ -58,12 +58,15 @@ public class PacketDispatcher {
      */
     public static void registerPackets() {
         registerMessage(PacketCube.Handler.class, PacketCube.class);
+        registerMessage(PacketCubeBatch.Handler.class, PacketCubeBatch.class);
         registerMessage(PacketColumn.Handler.class, PacketColumn.class);
+        registerMessage(PacketHeightMapUpdate.Handler.class, PacketHeightMapUpdate.class);
 
         registerMessage(PacketUnloadColumn.Handler.class, PacketUnloadColumn.class);
         registerMessage(PacketUnloadCube.Handler.class, PacketUnloadCube.class);
 
         registerMessage(PacketCubeBlockChange.Handler.class, PacketCubeBlockChange.class);
+        registerMessage(PacketCubeLightUpdate.Handler.class, PacketCubeLightUpdate.class);
     }
 
     /**
@@ -0,0 +1,104 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import com.google.common.base.Preconditions;
+import gnu.trove.list.TIntList;
+import io.netty.buffer.ByteBuf;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
+import net.minecraftforge.fml.common.network.simpleimpl.MessageContext;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sends the heightmap entries of a column that changed since the column (or the previous update) was sent.
+ * The full heightmap is only sent once, together with {@link PacketColumn}.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class PacketHeightMapUpdate implements IMessage {
+
+    private ChunkPos chunkPos;
+    // index is (z << 4) | x, same as used by the heightmaps
+    private int[] indexes;
+    private int[] heights;
+
+    public PacketHeightMapUpdate() {
+    }
+
+    public PacketHeightMapUpdate(ChunkPos chunkPos, TIntList indexes, TIntList heights) {
+        Preconditions.checkArgument(indexes.size() == heights.size());
+        this.chunkPos = chunkPos;
+        this.indexes = indexes.toArray();
+        this.heights = heights.toArray();
+    }
+
+    @Override
+    public void fromBytes(ByteBuf buf) {
+        this.chunkPos = new ChunkPos(buf.readInt(), buf.readInt());
+        int count = buf.readUnsignedShort();
+        this.indexes = new int[count];
+        this.heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = buf.readUnsignedByte();
+            heights[i] = buf.readInt();
+        }
+    }
+
+    @Override
+    public void toBytes(ByteBuf buf) {
+        buf.writeInt(chunkPos.chunkXPos);
+        buf.writeInt(chunkPos.chunkZPos);
+        buf.writeShort(indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            buf.writeByte(indexes[i]);
+            buf.writeInt(heights[i]);
+        }
+    }
+
+    ChunkPos getColumnPos() {
+        return Preconditions.checkNotNull(chunkPos);
+    }
+
+    int[] getIndexes() {
+        return indexes;
+    }
+
+    int[] getHeights() {
+        return heights;
+    }
+
+    public static class Handler extends AbstractClientMessageHandler<PacketHeightMapUpdate> {
+
+        @Nullable @Override
+        public IMessage handleClientMessage(EntityPlayer player, PacketHeightMapUpdate message, MessageContext ctx) {
+            ClientHandler.getInstance().handle(message);
+            return null;
+        }
+    }
+}
@@ -31,128 +31,193 @@ import cubicchunks.world.cube.Cube;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
 import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.BlockStateContainer;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
 
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 class WorldEncoder {
 
-    static void encodeCube(PacketBuffer out, Cube cube) {
-        // 1. emptiness
-        out.writeBoolean(cube.isEmpty());
-        out.writeBoolean(cube.getStorage() != null);
-
-        if (!cube.isEmpty()) {
-            ExtendedBlockStorage storage = cube.getStorage();
-
-            // 2. block IDs and metadata
-            storage.getData().write(out);
-        }
-
-        if (cube.getStorage() != null) {
-            ExtendedBlockStorage storage = cube.getStorage();
-            // 3. block light
-            out.writeBytes(storage.getBlocklightArray().getData());
-
-            if (!cube.getCubicWorld().getProvider().hasNoSky()) {
-                // 4. sky light
-                out.writeBytes(storage.getSkylightArray().getData());
+    // cube has no storage at all
+    private static final byte TYPE_NO_STORAGE = 0;
+    // all blocks have the same state and block light and sky light is the same everywhere. Mostly sky and solid stone
+    private static final byte TYPE_UNIFORM = 1;
+    // all blocks are air, but light varies
+    private static final byte TYPE_LIGHT_ONLY = 2;
+    private static final byte TYPE_FULL = 3;
+    // set in the type byte if the cube has sky light, so that it can be decoded without access to the world
+    private static final int FLAG_HAS_SKY = 0x80;
+
+    @SuppressWarnings("deprecation")
+    static void encodeCube(PacketBuffer out, CubeSnapshot cube) {
+        boolean hasSky = cube.hasSky();
+
+        // 1. cube type
+        byte type;
+        int uniformStateId = -1;
+        if (!cube.hasStorage()) {
+            type = TYPE_NO_STORAGE;
+        } else {
+            boolean uniformLight = isUniform(cube.getBlockLight()) && (!hasSky || isUniform(cube.getSkyLight()));
+            if (cube.isEmpty()) {
+                type = uniformLight ? TYPE_UNIFORM : TYPE_LIGHT_ONLY;
+                uniformStateId = Block.BLOCK_STATE_IDS.get(Blocks.AIR.getDefaultState());
+            } else if (uniformLight && (uniformStateId = getUniformStateId(cube)) >= 0) {
+                type = TYPE_UNIFORM;
+            } else {
+                type = TYPE_FULL;
             }
-
         }
-
-        if (!cube.isEmpty()) {
-            // 5. heightmap and bottom-block-y. Each non-empty cube has a chance
-            // to update this data.
-            // trying to keep track of when it changes would be complex, so send
-            // it wil all cubes
-            byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-            assert heightmaps.length == 256 * 4;
-            out.writeBytes(heightmaps);
+        out.writeByte(hasSky ? type | FLAG_HAS_SKY : type);
+
+        switch (type) {
+            case TYPE_NO_STORAGE:
+                break;
+            case TYPE_UNIFORM:
+                // 2. block state, block light and sky light, a few bytes for the whole cube
+                ByteBufUtils.writeVarInt(out, uniformStateId, 4);
+                out.writeByte(cube.getBlockLight()[0] & 0xF);
+                if (hasSky) {
+                    out.writeByte(cube.getSkyLight()[0] & 0xF);
+                }
+                break;
+            case TYPE_FULL:
+                // 2. block IDs and metadata, serialized from the data copied by the snapshot
+                out.writeBytes(cube.getBlockData());
+                // fall through
+            case TYPE_LIGHT_ONLY:
+                // 3. block light
+                out.writeBytes(cube.getBlockLight());
+
+                if (hasSky) {
+                    // 4. sky light
+                    out.writeBytes(cube.getSkyLight());
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown cube type " + type);
         }
     }
 
     static void encodeColumn(PacketBuffer out, Column column) {
         // 1. biomes
         out.writeBytes(column.getBiomeArray());
+
+        // 2. heightmap. Sent once with the column, later changes are sent as PacketHeightMapUpdate
+        byte[] heightmap = ((ServerHeightMap) column.getOpacityIndex()).getDataForClient();
+        assert heightmap.length == 256 * 4;
+        out.writeBytes(heightmap);
     }
 
     static void decodeColumn(PacketBuffer in, Column column) {
         // 1. biomes
         in.readBytes(column.getBiomeArray());
-    }
-
-    static void decodeCube(PacketBuffer in, Cube cube) {
-        // if the cube came from the server, it must be live
-        cube.setClientCube();
-
-        // 1. emptiness
-        boolean isEmpty = in.readBoolean();
-        boolean hasStorage = in.readBoolean();
-
-        ExtendedBlockStorage storage = null;
 
-        if (hasStorage) {
-            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cube.getY()),
-                    !cube.getCubicWorld().getProvider().hasNoSky());
-            cube.setStorage(storage);
-        }
-
-        if (!isEmpty) {
-            storage.getData().read(in);
-        }
-
-        if (hasStorage) {
-            // 3. block light
-            in.readBytes(storage.getBlocklightArray().getData());
-
-            if (!cube.getCubicWorld().getProvider().hasNoSky()) {
-                // 4. sky light
-                in.readBytes(storage.getSkylightArray().getData());
-            }
+        // 2. heightmap
+        byte[] heightmap = new byte[256 * 4];
+        in.readBytes(heightmap);
+        ((ClientHeightMap) column.getOpacityIndex()).setData(heightmap);
+    }
 
+    /**
+     * Decodes cube data into a new storage. Doesn't access the world, so it can be called from any thread.
+     *
+     * @param in the cube data
+     * @param cubeY y position of the cube
+     *
+     * @return the decoded storage, or null if the cube has no storage
+     */
+    @SuppressWarnings("deprecation")
+    @Nullable
+    static ExtendedBlockStorage decodeCubeStorage(PacketBuffer in, int cubeY) {
+        // 1. cube type
+        int typeAndFlags = in.readUnsignedByte();
+        boolean hasSky = (typeAndFlags & FLAG_HAS_SKY) != 0;
+        byte type = (byte) (typeAndFlags & ~FLAG_HAS_SKY);
+        if (type == TYPE_NO_STORAGE) {
+            return null;
         }
 
-        if (!isEmpty) {
-            // 5. heightmaps TODO: NO NO NO! Don't send this with Cubes!
-            byte[] heightmaps = new byte[256 * 4];
-            in.readBytes(heightmaps);
-            ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-            coi.setData(heightmaps);
-            // cube.initialClientSkylight();
-            storage.removeInvalidBlocks();
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSky);
+
+        switch (type) {
+            case TYPE_UNIFORM:
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(ByteBufUtils.readVarInt(in, 4));
+                int blockLight = in.readUnsignedByte();
+                int skyLight = hasSky ? in.readUnsignedByte() : 0;
+                // new storage is already filled with air and zero light
+                if (state != null && state.getBlock() != Blocks.AIR) {
+                    BlockStateContainer data = storage.getData();
+                    for (int i = 0; i < Cube.SIZE * Cube.SIZE * Cube.SIZE; i++) {
+                        data.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+                    }
+                    storage.removeInvalidBlocks();
+                }
+                if (blockLight != 0) {
+                    Arrays.fill(storage.getBlocklightArray().getData(), (byte) (blockLight | blockLight << 4));
+                }
+                if (hasSky && skyLight != 0) {
+                    Arrays.fill(storage.getSkylightArray().getData(), (byte) (skyLight | skyLight << 4));
+                }
+                break;
+            case TYPE_FULL:
+                storage.getData().read(in);
+                // fall through
+            case TYPE_LIGHT_ONLY:
+                // 3. block light
+                in.readBytes(storage.getBlocklightArray().getData());
+
+                if (hasSky) {
+                    // 4. sky light
+                    in.readBytes(storage.getSkylightArray().getData());
+                }
+                if (type == TYPE_FULL) {
+                    storage.removeInvalidBlocks();
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown cube type " + type);
         }
+        return storage;
     }
 
     static int getEncodedSize(Column column) {
-        return column.getBiomeArray().length;
+        return column.getBiomeArray().length + 256 * 4;
     }
 
-    static int getEncodedSize(Cube cube) {
-        int size = 0;
-        size++;// isEmpty
-        size++;// hasStorage
-        if (!cube.isEmpty()) {
-            ExtendedBlockStorage storage = cube.getStorage();
-            size += storage.getData().getSerializedSize();
-        }
-
-        if (cube.getStorage() != null) {
-            ExtendedBlockStorage storage = cube.getStorage();
-            size += storage.getBlocklightArray().getData().length;
-            if (!cube.getCubicWorld().getProvider().hasNoSky()) {
-                size += storage.getSkylightArray().getData().length;
+    private static int getUniformStateId(CubeSnapshot cube) {
+        int[] ids = cube.decodeBlockStateIds();
+        assert ids != null;
+        int first = ids[0];
+        for (int id : ids) {
+            if (id != first) {
+                return -1;
             }
         }
+        return first;
+    }
 
-        if (!cube.isEmpty()) {
-            // heightmaps
-            size += 256 * 2 * 4;
+    private static boolean isUniform(byte[] data) {
+        byte first = data[0];
+        if ((first & 0xF) != ((first >> 4) & 0xF)) {
+            return false;
+        }
+        for (byte b : data) {
+            if (b != first) {
+                return false;
+            }
         }
-        return size;
+        return true;
     }
 
     static ByteBuf createByteBufForWrite(byte[] data) {
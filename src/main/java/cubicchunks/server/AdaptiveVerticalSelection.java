@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import com.carrotsearch.hppc.LongArrayList;
+import cubicchunks.util.AddressTools;
+import cubicchunks.util.CubePos;
+import cubicchunks.visibility.CubeSelector;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Cubes selected for one player when the vertical view distance adapts to terrain.
+ * <p>
+ * In every column chosen by the cube selector, cubes within {@link #NEAR_DISTANCE} of the player are always selected.
+ * Further away only cubes near the terrain surface are, so a player flying high above terrain doesn't load empty sky
+ * and a player in a cave doesn't load stone far above and below. Columns with unknown surface are selected in full.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+class AdaptiveVerticalSelection {
+
+    /**
+     * Vertical distance in cubes around the player that is always selected
+     */
+    static final int NEAR_DISTANCE = 2;
+    /**
+     * Cubes selected above and below the surface, so that blocks right under the surface and overhangs are visible
+     */
+    static final int SURFACE_MARGIN = 1;
+
+    /**
+     * Selected cube y ranges for each column address, as {nearMinY, nearMaxY, surfaceMinY, surfaceMaxY}.
+     * An empty range has min greater than max.
+     */
+    private TLongObjectMap<int[]> selected = new TLongObjectHashMap<>();
+    private final int[] surfaceBuffer = new int[2];
+
+    /**
+     * Selects cubes around the given position and adds the ones that changed to the lists, as packed addresses.
+     * The lists are not cleared.
+     */
+    void update(CubeSelector selector, CubePos pos, int horizontalViewDistance, int verticalViewDistance,
+            SurfaceSource surfaceSource, LongArrayList cubesToRemove, LongArrayList cubesToLoad) {
+        TLongObjectMap<int[]> newSelected = new TLongObjectHashMap<>(this.selected.size());
+        int posX = pos.getX();
+        int posY = pos.getY();
+        int posZ = pos.getZ();
+        for (int x = posX - horizontalViewDistance; x <= posX + horizontalViewDistance; x++) {
+            for (int z = posZ - horizontalViewDistance; z <= posZ + horizontalViewDistance; z++) {
+                int radius = selector.getColumnVerticalRadius(x - posX, z - posZ, horizontalViewDistance, verticalViewDistance);
+                if (radius < 0) {
+                    continue;
+                }
+                int[] ranges = getRanges(x, z, posY, radius, surfaceSource, this.surfaceBuffer);
+                long column = AddressTools.getAddress(x, z);
+                int[] oldRanges = this.selected.remove(column);
+                addDifference(x, z, ranges, oldRanges, cubesToLoad);
+                addDifference(x, z, oldRanges, ranges, cubesToRemove);
+                newSelected.put(column, ranges);
+            }
+        }
+        // whatever is left is no longer in range
+        this.selected.forEachEntry((column, oldRanges) -> {
+            addDifference(AddressTools.getX(column), AddressTools.getZ(column), oldRanges, null, cubesToRemove);
+            return true;
+        });
+        this.selected = newSelected;
+    }
+
+    /**
+     * Adds all selected cubes to the list and clears the selection.
+     */
+    void clear(LongArrayList cubesToRemove) {
+        this.selected.forEachEntry((column, oldRanges) -> {
+            addDifference(AddressTools.getX(column), AddressTools.getZ(column), oldRanges, null, cubesToRemove);
+            return true;
+        });
+        this.selected.clear();
+    }
+
+    static int[] getRanges(int columnX, int columnZ, int posY, int radius, SurfaceSource surfaceSource, int[] surfaceBuffer) {
+        int near = Math.min(radius, NEAR_DISTANCE);
+        int[] ranges = {posY - near, posY + near, posY - radius, posY + radius};
+        if (surfaceSource.getSurface(columnX, columnZ, surfaceBuffer)) {
+            ranges[2] = Math.max(ranges[2], surfaceBuffer[0] - SURFACE_MARGIN);
+            ranges[3] = Math.min(ranges[3], surfaceBuffer[1] + SURFACE_MARGIN);
+            if (ranges[2] > ranges[3]) {
+                // keep empty ranges within the near range, so that iterating over a column stays short
+                ranges[2] = ranges[0];
+                ranges[3] = ranges[0] - 1;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Adds cubes of the column selected by ranges a, but not by ranges b.
+     */
+    private static void addDifference(int x, int z, @Nullable int[] a, @Nullable int[] b, LongArrayList cubes) {
+        if (a == null) {
+            return;
+        }
+        int minY = Math.min(a[0], a[2]);
+        int maxY = Math.max(a[1], a[3]);
+        for (int y = minY; y <= maxY; y++) {
+            if (contains(a, y) && !contains(b, y)) {
+                cubes.add(AddressTools.getAddress(x, y, z));
+            }
+        }
+    }
+
+    private static boolean contains(@Nullable int[] ranges, int y) {
+        return ranges != null && ((y >= ranges[0] && y <= ranges[1]) || (y >= ranges[2] && y <= ranges[3]));
+    }
+
+    @FunctionalInterface
+    interface SurfaceSource {
+
+        /**
+         * Writes the lowest and highest cube y of the terrain surface in the given column into out[0] and out[1].
+         * Returns false if the surface is not known.
+         */
+        boolean getSurface(int columnX, int columnZ, int[] out);
+    }
+}
@@ -42,6 +42,13 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public class ChunkGc implements IConfigUpdateListener {
 
+    /**
+     * When enabled, blocks and light of cubes that aren't ticking and haven't been accessed for a whole gc interval
+     * are compressed in memory.
+     */
+    private static final boolean COMPRESS_COLD_CUBES =
+            System.getProperty("cubicchunks.compressColdCubes", "false").equalsIgnoreCase("true");
+
     @Nonnull private final CubeProviderServer cubeCache;
 
     private int tick = 0;
@@ -63,8 +70,11 @@ public class ChunkGc implements IConfigUpdateListener {
     private void chunkGc() {
         Iterator<Cube> cubeIt = cubeCache.cubesIterator();
         while (cubeIt.hasNext()) {
-            if (cubeCache.tryUnloadCube(cubeIt.next())) {
+            Cube cube = cubeIt.next();
+            if (cubeCache.tryUnloadCube(cube)) {
                 cubeIt.remove();
+            } else if (COMPRESS_COLD_CUBES) {
+                cube.tryCompressStorage();
             }
         }
 
@@ -23,6 +23,7 @@
  */
 package cubicchunks.server;
 
+import static cubicchunks.util.Coords.cubeToMinBlock;
 import static cubicchunks.util.ReflectionUtil.getFieldGetterHandle;
 import static cubicchunks.util.ReflectionUtil.getFieldSetterHandle;
 
@@ -30,11 +31,16 @@ import com.google.common.base.Throwables;
 import cubicchunks.CubicChunks;
 import cubicchunks.network.PacketColumn;
 import cubicchunks.network.PacketDispatcher;
+import cubicchunks.network.PacketHeightMapUpdate;
 import cubicchunks.network.PacketUnloadColumn;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XZAddressable;
+import cubicchunks.world.ServerHeightMap;
 import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.management.PlayerChunkMapEntry;
@@ -60,6 +66,9 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
     private static MethodHandle isLoading = getFieldGetterHandle(PlayerChunkMapEntry.class, "loading");//forge field, no srg name
     private static MethodHandle getLoadedRunnable = getFieldGetterHandle(PlayerChunkMapEntry.class, "loadedRunnable");//forge field, no srg name
     @Nonnull private final Runnable loadedRunnable;
+    // heightmap as last sent to players, used to send only changed entries
+    @Nullable private int[] sentHeightMap;
+    private int sentHeightMapModificationCount;
 
     ColumnWatcher(PlayerCubeMap playerCubeMap, ChunkPos pos) {
         super(playerCubeMap, pos.chunkXPos, pos.chunkZPos);
@@ -83,6 +92,8 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
             this.setLastUpdateInhabitedTime(playerCubeMap.getWorldServer().getTotalWorldTime());
         }
 
+        // flush pending heightmap changes first, the new player gets the current heightmap with the column
+        this.sendHeightMapUpdate();
         this.getPlayers().add(player);
 
         //always sent to players, no need to check it
@@ -158,6 +169,12 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
             for (EntityPlayerMP player : this.getPlayers()) {
                 PacketDispatcher.sendTo(message, player);
             }
+            ServerHeightMap heightMap = (ServerHeightMap) this.getColumn().getOpacityIndex();
+            this.sentHeightMap = new int[Cube.SIZE * Cube.SIZE];
+            for (int i = 0; i < sentHeightMap.length; i++) {
+                sentHeightMap[i] = heightMap.getTopBlockY(i & 0xF, i >> 4);
+            }
+            this.sentHeightMapModificationCount = heightMap.getModificationCount();
             setSentToPlayers.invoke(this, true);
         } catch (Throwable throwable) {
             throw new RuntimeException(throwable);
@@ -187,6 +204,40 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         //no-op, handles by cube entries
     }
 
+    /**
+     * Sends heightmap entries that changed since the column was sent to players. Called every tick.
+     */
+    void sendHeightMapUpdate() {
+        Column column = this.getColumn();
+        if (column == null || sentHeightMap == null) {
+            return;
+        }
+        ServerHeightMap heightMap = (ServerHeightMap) column.getOpacityIndex();
+        int modificationCount = heightMap.getModificationCount();
+        if (modificationCount == sentHeightMapModificationCount) {
+            return;
+        }
+        sentHeightMapModificationCount = modificationCount;
+
+        TIntList indexes = new TIntArrayList();
+        TIntList heights = new TIntArrayList();
+        for (int i = 0; i < sentHeightMap.length; i++) {
+            int height = heightMap.getTopBlockY(i & 0xF, i >> 4);
+            if (height != sentHeightMap[i]) {
+                sentHeightMap[i] = height;
+                indexes.add(i);
+                heights.add(height);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return;
+        }
+        PacketHeightMapUpdate message = new PacketHeightMapUpdate(this.getPos(), indexes, heights);
+        for (EntityPlayerMP player : this.getPlayers()) {
+            PacketDispatcher.sendTo(message, player);
+        }
+    }
+
     //containsPlayer, hasPlayerMatching, hasPlayerMatchingInRange, isAddedToChunkUpdateQueue, getChunk, getClosestPlayerDistance - ok
 
     @Nullable
@@ -202,6 +253,21 @@ class ColumnWatcher extends PlayerChunkMapEntry implements XZAddressable {
         }
     }
 
+    /**
+     * Returns squared horizontal distance to the closest position players are expected to reach soon,
+     * see {@link PlayerCubeMap#getPredictedDistanceSq(EntityPlayerMP, double, double)}
+     */
+    @Override
+    public double getClosestPlayerDistance() {
+        double min = Double.MAX_VALUE;
+        double blockX = cubeToMinBlock(getX()) + Cube.SIZE / 2.0;
+        double blockZ = cubeToMinBlock(getZ()) + Cube.SIZE / 2.0;
+        for (EntityPlayerMP player : getPlayers()) {
+            min = Math.min(min, playerCubeMap.getPredictedDistanceSq(player, blockX, blockZ));
+        }
+        return min;
+    }
+
     @Override public int getX() {
         return this.getPos().chunkXPos;
     }
@@ -35,6 +35,7 @@ import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.OffHeapBlockStorage;
 import cubicchunks.worldgen.generator.ICubeGenerator;
 import cubicchunks.worldgen.generator.ICubePrimer;
 import mcp.MethodsReturnNonnullByDefault;
@@ -184,8 +185,12 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
     @Override
     public String makeString() {
-        return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
+        String str = "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
                 + this.cubeMap.getSize() + " cubes";
+        if (OffHeapBlockStorage.ENABLED) {
+            str += ", off-heap: " + (OffHeapBlockStorage.getUsedBytes() >> 20) + "/" + (OffHeapBlockStorage.getReservedBytes() >> 20) + "MB";
+        }
+        return str;
     }
 
     @Override
@@ -516,6 +521,18 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         return sb.toString();
     }
 
+    /**
+     * Unloads all cubes without saving them and releases their native memory. Called when the world is unloaded, after it
+     * has been saved. Off-heap storage is shared by all worlds, without this it would be kept until the JVM exits.
+     */
+    public void onWorldUnload() {
+        Iterator<Cube> it = cubeMap.iterator();
+        while (it.hasNext()) {
+            it.next().freeStorage();
+            it.remove();
+        }
+    }
+
     public void flush() throws IOException {
         this.cubeIO.flush();
     }
@@ -542,6 +559,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
         }
 
         cube.getColumn().removeCube(cube.getY());
+        cube.freeStorage(); // saving has already copied the data
         return true;
     }
 
@@ -27,6 +27,7 @@ import com.google.common.base.Predicate;
 import cubicchunks.CubicChunks;
 import cubicchunks.network.PacketCube;
 import cubicchunks.network.PacketCubeBlockChange;
+import cubicchunks.network.PacketCubeLightUpdate;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.network.PacketUnloadCube;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
@@ -34,7 +35,6 @@ import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZAddressable;
 import cubicchunks.util.ticket.ITicket;
-import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.cube.Cube;
 import gnu.trove.list.TShortList;
@@ -42,15 +42,13 @@ import gnu.trove.list.array.TShortArrayList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import mcp.MethodsReturnNonnullByDefault;
-import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.player.EntityPlayerMP;
-import net.minecraft.network.Packet;
-import net.minecraft.tileentity.TileEntity;
-import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EnumSkyBlock;
 import net.minecraftforge.common.ForgeModContainer;
 import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
+import java.lang.ref.WeakReference;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -73,7 +71,21 @@ public class CubeWatcher implements XYZAddressable, ITicket {
     @Nullable private Cube cube;
     @Nonnull private final TIntObjectMap<WatcherPlayerEntry> players = new TIntObjectHashMap<>();
     @Nonnull private final TShortList dirtyBlocks = new TShortArrayList(64);
+    // bit y set - light in block layer y changed since last update
+    private int dirtySkyLightLayers;
+    private int dirtyBlockLightLayers;
     @Nonnull private final CubePos cubePos;
+    /**
+     * Packet with the current state of the cube, shared by all players it's sent to. Valid as long as the cube revision
+     * doesn't change. Weakly referenced so that watchers don't keep encoded data of every watched cube in memory.
+     */
+    @Nullable private WeakReference<PacketCube> cubePacket;
+    /**
+     * Strong reference to {@link #cubePacket} while the cube is queued to be sent to some player, so that a packet
+     * that is still being encoded isn't collected and encoded again before it's sent
+     */
+    @Nullable private PacketCube queuedCubePacket;
+    private int cubePacketRevision;
     private long previousWorldTime = 0;
     private boolean sentToPlayers = false;
     private boolean loading = true;
@@ -130,6 +142,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         }
 
         if (this.sentToPlayers) {
+            playerCubeMap.cancelCubeSend(player, this);
             PacketDispatcher.sendTo(new PacketUnloadCube(this.cubePos), player);
         }
 
@@ -188,6 +201,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         this.dirtyBlocks.clear();
         //set to true before adding to queue so that sendToPlayer can actually add it
         this.sentToPlayers = true;
+        this.cube.setSentToPlayers(true);
 
         for (WatcherPlayerEntry playerEntry : this.players.valueCollection()) {
             //Sending entities per cube.
@@ -205,7 +219,31 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         if (!this.sentToPlayers) {
             return;
         }
-        PacketDispatcher.sendTo(new PacketCube(this.cube), player);
+        // cubes are sent in batches at the end of the tick, see PlayerCubeMap#sendQueuedCubes
+        playerCubeMap.scheduleCubeSend(player, this);
+    }
+
+    PacketCube getCubePacket() {
+        assert this.cube != null;
+        int revision = this.cube.getRevision();
+        PacketCube packet = this.cubePacket == null ? null : this.cubePacket.get();
+        if (packet == null || this.cubePacketRevision != revision) {
+            packet = new PacketCube(this.cube);
+            this.cubePacket = new WeakReference<>(packet);
+            this.cubePacketRevision = revision;
+        }
+        this.queuedCubePacket = packet;
+        return packet;
+    }
+
+    /**
+     * Called when the cube has been sent to a player, or removed from the player's send queue. Once no player has it
+     * queued, the packet is only weakly referenced again.
+     */
+    void cubeSendDone() {
+        if (this.queuedCubePacket != null && !hasPlayerMatching(player -> playerCubeMap.isCubeSendQueued(player, this))) {
+            this.queuedCubePacket = null;
+        }
     }
 
     // CHECKED: 1.10.2-12.18.1.2092
@@ -237,6 +275,25 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         this.dirtyBlocks.add(AddressTools.getLocalAddress(localX, localY, localZ));
     }
 
+    /**
+     * Marks light in the given block layer as changed, without any block change. Only the changed layers are sent
+     * to players.
+     */
+    void lightChanged(EnumSkyBlock type, int localY) {
+        if (!this.sentToPlayers) {
+            // the whole cube will be sent anyway
+            return;
+        }
+        if (this.dirtyBlocks.isEmpty() && this.dirtySkyLightLayers == 0 && this.dirtyBlockLightLayers == 0) {
+            playerCubeMap.addToUpdateEntry(this);
+        }
+        if (type == EnumSkyBlock.SKY) {
+            this.dirtySkyLightLayers |= 1 << localY;
+        } else {
+            this.dirtyBlockLightLayers |= 1 << localY;
+        }
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     void update() {
         if (!this.sentToPlayers) {
@@ -244,41 +301,32 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         }
         assert cube != null;
         // are there any updates?
-        if (this.dirtyBlocks.isEmpty()) {
+        if (this.dirtyBlocks.isEmpty() && this.dirtySkyLightLayers == 0 && this.dirtyBlockLightLayers == 0) {
             return;
         }
 
-        ICubicWorld world = this.cube.getCubicWorld();
-
         if (this.dirtyBlocks.size() >= ForgeModContainer.clumpingThreshold) {
-            // send whole cube
-            sendPacketToAllPlayers(new PacketCube(cube));
+            // send whole cube, encoded once for all players
+            this.cubePacket = null;
+            this.queuedCubePacket = null;
+            sendPacketToAllPlayers(getCubePacket());
+            cubeSendDone();
         } else {
-            // send all the dirty blocks
-            sendPacketToAllPlayers(new PacketCubeBlockChange(this.cube, this.dirtyBlocks));
-            // send the block entites on those blocks too
-            this.dirtyBlocks.forEach(localAddress -> {
-                BlockPos pos = cube.localAddressToBlockPos(localAddress);
-
-                IBlockState state = this.cube.getBlockState(pos);
-                if (state.getBlock().hasTileEntity(state)) {
-                    sendBlockEntityToAllPlayers(world.getTileEntity(pos));
+            if (!this.dirtyBlocks.isEmpty()) {
+                // send all the dirty blocks, together with block entities on those blocks
+                sendPacketToAllPlayers(new PacketCubeBlockChange(this.cube, this.dirtyBlocks));
+            }
+            if (this.dirtySkyLightLayers != 0 || this.dirtyBlockLightLayers != 0) {
+                // send only light of changed layers
+                PacketCubeLightUpdate packet = new PacketCubeLightUpdate(this.cube, this.dirtySkyLightLayers, this.dirtyBlockLightLayers);
+                if (!packet.isEmpty()) {
+                    sendPacketToAllPlayers(packet);
                 }
-                return true;
-            });
+            }
         }
         this.dirtyBlocks.clear();
-    }
-
-    private void sendBlockEntityToAllPlayers(@Nullable TileEntity blockEntity) {
-        if (blockEntity == null) {
-            return;
-        }
-        Packet packet = blockEntity.getUpdatePacket();
-        if (packet == null) {
-            return;
-        }
-        sendPacketToAllPlayers(packet);
+        this.dirtySkyLightLayers = 0;
+        this.dirtyBlockLightLayers = 0;
     }
 
     boolean containsPlayer(EntityPlayerMP player) {
@@ -290,6 +338,10 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         return !this.players.forEachValue(value -> !predicate.apply(value.player));
     }
 
+    double getDistanceSq(Entity entity) {
+        return getDistanceSq(this.cubePos, entity);
+    }
+
     private double getDistanceSq(CubePos cubePos, Entity entity) {
         double blockX = cubePos.getXCenter();
         double blockY = cubePos.getYCenter();
@@ -304,11 +356,15 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         return this.cube;
     }
 
+    /**
+     * Returns squared distance to the closest position players are expected to reach soon,
+     * see {@link PlayerCubeMap#getPredictedDistanceSq(EntityPlayerMP, double, double, double)}
+     */
     double getClosestPlayerDistance() {
         double min = Double.MAX_VALUE;
 
         for (WatcherPlayerEntry entry : this.players.valueCollection()) {
-            double dist = getDistanceSq(cubePos, entry.player);
+            double dist = playerCubeMap.getPredictedDistanceSq(entry.player, cubePos.getXCenter(), cubePos.getYCenter(), cubePos.getZCenter());
 
             if (dist < min) {
                 min = dist;
@@ -322,14 +378,15 @@ public class CubeWatcher implements XYZAddressable, ITicket {
         return playerCubeMap.getWorldServer().getWorldTime();
     }
 
-    private void sendPacketToAllPlayers(Packet<?> packet) {
-        for (WatcherPlayerEntry entry : this.players.valueCollection()) {
-            entry.player.connection.sendPacket(packet);
-        }
-    }
-
+    /**
+     * Sends the packet to all players that already have this cube. Players that still have it queued will get the
+     * whole cube later, so updates to it are skipped.
+     */
     private void sendPacketToAllPlayers(IMessage packet) {
         for (WatcherPlayerEntry entry : this.players.valueCollection()) {
+            if (playerCubeMap.isCubeSendQueued(entry.player, this)) {
+                continue;
+            }
             PacketDispatcher.sendTo(packet, entry.player);
         }
     }
@@ -27,33 +27,46 @@ import static cubicchunks.util.Coords.blockToCube;
 import static cubicchunks.util.Coords.blockToLocal;
 import static net.minecraft.util.math.MathHelper.clamp;
 
+import com.carrotsearch.hppc.ByteArrayDeque;
+import com.carrotsearch.hppc.LongArrayDeque;
+import com.carrotsearch.hppc.LongArrayList;
 import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ComparisonChain;
 import cubicchunks.CubicChunks;
 import cubicchunks.IConfigUpdateListener;
+import cubicchunks.network.PacketCube;
+import cubicchunks.network.PacketCubeBatch;
+import cubicchunks.network.PacketDispatcher;
+import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
+import cubicchunks.util.IndexedPriorityQueue;
 import cubicchunks.util.XYZMap;
 import cubicchunks.util.XZMap;
 import cubicchunks.visibility.CubeSelector;
-import cubicchunks.visibility.CuboidalCubeSelector;
 import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.ServerHeightMap;
 import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.FaceConnectivity;
+import cubicchunks.world.provider.ICubicWorldProvider;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TLongByteMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongByteHashMap;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.management.PlayerChunkMap;
 import net.minecraft.server.management.PlayerChunkMapEntry;
+import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -77,28 +90,62 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
             (!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
     /**
-     * Comparator that specifies order in which cubes will be generated and sent to clients
+     * Lowest per-player cube send budget in bytes, used while the player's connection can't keep up.
      */
-    private static final Comparator<CubeWatcher> CUBE_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final int MIN_CUBE_SEND_BYTES = 16 * 1024;
+    /**
+     * Maximum number of queued cubes still being encoded that are skipped in one tick before giving up on the rest of
+     * the player's queue, so that a long queue isn't polled entirely each tick.
+     */
+    private static final int MAX_CUBES_SKIPPED_PER_TICK = 64;
+
+    /**
+     * When enabled, cubes that can't be reached from the player's cube through non-opaque blocks are not sent until
+     * they become reachable or the player gets within {@link #ALWAYS_VISIBLE_RADIUS} cubes of them.
+     */
+    private static final boolean OCCLUSION_CULLING =
+            System.getProperty("cubicchunks.occlusionCulling", "false").equalsIgnoreCase("true");
+    private static final int ALWAYS_VISIBLE_RADIUS = 1;
+    private static final int VISIBLE_CUBES_UPDATE_INTERVAL = 20;
+    private static final int ALL_FACES = (1 << 6) - 1;
+
+    /**
+     * When enabled, far from the player only cubes near the terrain surface are loaded in each column,
+     * see {@link AdaptiveVerticalSelection}. Columns are still selected by {@link #cubeSelector}.
+     */
+    private static final boolean ADAPTIVE_VERTICAL_DISTANCE =
+            System.getProperty("cubicchunks.adaptiveVerticalDistance", "false").equalsIgnoreCase("true");
+    private static final int ADAPTIVE_SELECTION_UPDATE_INTERVAL = 20;
 
     /**
-     * Comparator that specifies order in which columns will be generated and sent to clients
+     * When enabled, cubes and columns are generated and sent in order of distance to where each player is expected to be
+     * in {@link #LOOKAHEAD_TICKS} ticks at their current velocity, so fast moving players don't outrun loading.
+     * Cubes are ordered by the smaller of the distances to the player and to the predicted position, so that cubes
+     * around the player are loaded as early as those around the predicted position. Lookahead is limited to half of
+     * horizontal view distance.
+     */
+    private static final boolean PREDICTIVE_LOADING =
+            System.getProperty("cubicchunks.predictiveLoading", "false").equalsIgnoreCase("true");
+    private static final int LOOKAHEAD_TICKS = 60;
+    /**
+     * Queues are reordered when the predicted position of a player moves this many blocks since the last reorder,
+     * and not only when the player moves to another cube
+     */
+    private static final double LOOKAHEAD_RESORT_DISTANCE = Cube.SIZE;
+    /**
+     * Weight of the last tick in the smoothed player velocity
+     */
+    private static final double VELOCITY_SMOOTHING = 0.2;
+    /**
+     * Movement per tick above this many blocks is considered a teleport, and resets velocity
      */
-    private static final Comparator<ColumnWatcher> COLUMN_ORDER = (watcher1, watcher2) ->
-            ComparisonChain.start().compare(
-                    watcher1.getClosestPlayerDistance(),
-                    watcher2.getClosestPlayerDistance()
-            ).result();
+    private static final double TELEPORT_DISTANCE = 16;
 
     /**
      * Cube selector is used to find which cube positions need to be loaded/unloaded
-     * By default use CuboidalCubeSelector.
+     * Chosen by the world provider, CuboidalCubeSelector by default.
      */
-    private final CubeSelector cubeSelector = new CuboidalCubeSelector();
+    private final CubeSelector cubeSelector;
 
     /**
      * Mapping if entityId to PlayerCubeMap.PlayerWrapper objects.
@@ -130,16 +177,22 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
      * <p>
      * Note that this is not the same as cubesToGenerate list.
      * Cube can be loaded while not being fully generated yet (not in the last GeneratorStageRegistry stage).
+     * <p>
+     * Ordered by distance to the closest player, cubes closer to players are sent first.
      */
-    private final List<CubeWatcher> cubesToSendToClients = new ArrayList<>();
+    private final IndexedPriorityQueue<CubeWatcher> cubesToSendToClients =
+            new IndexedPriorityQueue<>(CubeWatcher::getClosestPlayerDistance);
 
     /**
      * Contains all CubeWatchers that still need to be loaded/generated.
      * CubeWatcher constructor attempts to load cube from disk, but it won't generate it.
      * Technically it can generate it, using the world's IGeneratorPipeline,
      * but spectator players can't generate chunks if spectatorsGenerateChunks gamerule is set.
+     * <p>
+     * Ordered by distance to the closest player, cubes closer to players are generated first.
      */
-    private final List<CubeWatcher> cubesToGenerate = new ArrayList<>();
+    private final IndexedPriorityQueue<CubeWatcher> cubesToGenerate =
+            new IndexedPriorityQueue<>(CubeWatcher::getClosestPlayerDistance);
 
     /**
      * Contains all ColumnWatchers that need to be sent to clients,
@@ -148,13 +201,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
      * Note that this is not the same as columnsToGenerate list.
      * Columns can be loaded while not being fully generated yet
      */
-    private final List<ColumnWatcher> columnsToSendToClients = new ArrayList<>();
+    private final IndexedPriorityQueue<ColumnWatcher> columnsToSendToClients =
+            new IndexedPriorityQueue<>(ColumnWatcher::getClosestPlayerDistance);
 
     /**
      * Contains all ColumnWatchers that still need to be loaded/generated.
      * ColumnWatcher constructor attempts to load column from disk, but it won't generate it.
      */
-    private final List<ColumnWatcher> columnsToGenerate = new ArrayList<>();
+    private final IndexedPriorityQueue<ColumnWatcher> columnsToGenerate =
+            new IndexedPriorityQueue<>(ColumnWatcher::getClosestPlayerDistance);
 
     private int horizontalViewDistance;
     private int verticalViewDistance;
@@ -165,16 +220,37 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
      */
     private long previousWorldTime = 0;
 
+    /**
+     * Buffers of packed cube and column addresses reused by {@link #updatePlayer}, so that moving players doesn't
+     * allocate positions
+     */
+    private final LongArrayList cubesToRemoveBuffer = new LongArrayList();
+    private final LongArrayList cubesToLoadBuffer = new LongArrayList();
+    private final LongArrayList columnsToRemoveBuffer = new LongArrayList();
+    private final LongArrayList columnsToLoadBuffer = new LongArrayList();
+
+    /**
+     * Reused by {@link #findVisibleCubes(CubePos, TLongByteMap)}: addresses of cubes to walk and the index of the face
+     * each of them has been entered through
+     */
+    private final LongArrayDeque visibilityQueue = new LongArrayDeque();
+    private final ByteArrayDeque visibilityQueueEntryFaces = new ByteArrayDeque();
+
+    private final AdaptiveVerticalSelection.SurfaceSource surfaceSource = this::getSurface;
+
     private boolean toGenerateNeedSort = true;
     private boolean toSendToClientNeedSort = true;
 
     @Nonnull private final CubeProviderServer cubeCache;
 
     private volatile int maxGeneratedCubesPerTick = CubicChunks.Config.Options.MAX_GENERATED_CUBES_PER_TICK.getValue();
+    private volatile int maxCubeSendBytesPerTick = CubicChunks.Config.Options.MAX_CUBE_SEND_KB_PER_TICK.getValue() * 1024;
+    private volatile long generationTickBudgetNanos = CubicChunks.Config.Options.GENERATION_TICK_BUDGET.getValue() * 1000000L;
 
     public PlayerCubeMap(ICubicWorldServer worldServer) {
         super((WorldServer) worldServer);
         this.cubeCache = getWorld().getCubeCache();
+        this.cubeSelector = ((ICubicWorldProvider) worldServer.getProvider()).createCubeSelector();
         this.setPlayerViewDistance(worldServer.getMinecraftServer().getPlayerList().getViewDistance(),
                 CubicChunks.Config.Options.VERTICAL_CUBE_LOAD_DISTANCE.getValue());
         CubicChunks.addConfigChangeListener(this);
@@ -186,6 +262,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
             this.updatedVerticalViewDistance = config.getVerticalCubeLoadDistance();
         }
         this.maxGeneratedCubesPerTick = config.getMaxGeneratedCubesPerTick();
+        this.maxCubeSendBytesPerTick = config.getMaxCubeSendKbPerTick() * 1024;
+        this.generationTickBudgetNanos = config.getGenerationTickBudget() * 1000000L;
     }
 
     /**
@@ -239,115 +317,109 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
         this.cubeWatchersToUpdate.forEach(CubeWatcher::update);
         this.cubeWatchersToUpdate.clear();
 
+        if (PREDICTIVE_LOADING) {
+            double maxLookahead = this.horizontalViewDistance * Cube.SIZE / 2.0;
+            boolean lookaheadChanged = false;
+            for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+                lookaheadChanged |= playerWrapper.updateLookahead(maxLookahead);
+            }
+            if (lookaheadChanged) {
+                this.setNeedSort();
+            }
+        }
+
+        if (ADAPTIVE_VERTICAL_DISTANCE && currentTime % ADAPTIVE_SELECTION_UPDATE_INTERVAL == 0) {
+            getWorld().getProfiler().endStartSection("adaptiveSelection");
+            // terrain changes and newly loaded columns move the surface
+            for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+                this.updateAdaptiveSelection(playerWrapper, playerWrapper.getManagedCubePos(),
+                        this.horizontalViewDistance, this.verticalViewDistance);
+            }
+            this.setNeedSort();
+        }
+
         getWorld().getProfiler().endStartSection("sortToGenerate");
-        //sort toLoadPending if needed, but at most every 4 ticks
+        //update priorities of toLoadPending if needed, but at most every 4 ticks
         if (this.toGenerateNeedSort && currentTime % 4L == 0L) {
             this.toGenerateNeedSort = false;
-            Collections.sort(this.cubesToGenerate, CUBE_ORDER);
-            Collections.sort(this.columnsToGenerate, COLUMN_ORDER);
+            this.cubesToGenerate.updateAll();
+            this.columnsToGenerate.updateAll();
         }
         getWorld().getProfiler().endStartSection("sortToSend");
-        //sort cubesToSendToClients every other 4 ticks
+        //update priorities of cubesToSendToClients every other 4 ticks
         if (this.toSendToClientNeedSort && currentTime % 4L == 2L) {
             this.toSendToClientNeedSort = false;
-            Collections.sort(this.cubesToSendToClients, CUBE_ORDER);
-            Collections.sort(this.columnsToSendToClients, COLUMN_ORDER);
+            this.cubesToSendToClients.updateAll();
+            this.columnsToSendToClients.updateAll();
         }
 
         getWorld().getProfiler().endStartSection("generate");
-        if (!this.columnsToGenerate.isEmpty()) {
-            getWorld().getProfiler().startSection("columns");
-            Iterator<ColumnWatcher> iter = this.columnsToGenerate.iterator();
-            while (iter.hasNext()) {
-                ColumnWatcher entry = iter.next();
-
-                getWorld().getProfiler().startSection("column[" + entry.getPos().chunkXPos + "," + entry.getPos().chunkZPos + "]");
-                boolean success = entry.getColumn() != null;
-                if (!success) {
-                    boolean canGenerate = entry.hasPlayerMatching(CAN_GENERATE_CHUNKS);
-                    getWorld().getProfiler().startSection("generate");
-                    success = entry.providePlayerChunk(canGenerate);
-                    getWorld().getProfiler().endSection(); // generate
-                }
-
-                if (success) {
-                    iter.remove();
-
-                    if (entry.sendToPlayers()) {
-                        this.columnsToSendToClients.remove(entry);
-                    }
-                }
-
-                getWorld().getProfiler().endSection(); // column[x,z]
-            }
-
-            getWorld().getProfiler().endSection(); // columns
-        }
-        if (!this.cubesToGenerate.isEmpty()) {
-            getWorld().getProfiler().startSection("cubes");
-
-            long stopTime = System.nanoTime() + 50000000L;
+        if (!this.columnsToGenerate.isEmpty() || !this.cubesToGenerate.isEmpty()) {
+            // columns and cubes share the time budget, whichever is closer to a player is generated first
+            long stopTime = System.nanoTime() + this.generationTickBudgetNanos;
             int chunksToGenerate = maxGeneratedCubesPerTick;
-            Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
-
-            while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
-                CubeWatcher watcher = iterator.next();
-                CubePos pos = watcher.getCubePos();
-
-                getWorld().getProfiler().startSection("chunk=" + pos);
-
-                boolean success = watcher.getCube() != null && watcher.getCube().isFullyPopulated() && watcher.getCube().isInitialLightingDone();
-                if (!success) {
-                    boolean canGenerate = watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
-                    getWorld().getProfiler().startSection("generate");
-                    success = watcher.providePlayerCube(canGenerate);
-                    getWorld().getProfiler().endSection();
+            List<ColumnWatcher> columnsNotGenerated = new ArrayList<>();
+            List<CubeWatcher> cubesNotGenerated = new ArrayList<>();
+
+            while (System.nanoTime() < stopTime) {
+                boolean hasColumns = !this.columnsToGenerate.isEmpty();
+                boolean hasCubes = !this.cubesToGenerate.isEmpty() && chunksToGenerate >= 0;
+                if (!hasColumns && !hasCubes) {
+                    break;
                 }
-
-                if (success) {
-                    iterator.remove();
-
-                    if (watcher.sendToPlayers()) {
-                        this.cubesToSendToClients.remove(watcher);
+                if (hasColumns && (!hasCubes || this.columnsToGenerate.peekPriority() <= this.cubesToGenerate.peekPriority())) {
+                    ColumnWatcher entry = this.columnsToGenerate.poll();
+                    assert entry != null;
+                    if (!generateColumn(entry)) {
+                        columnsNotGenerated.add(entry);
+                    }
+                } else {
+                    CubeWatcher watcher = this.cubesToGenerate.poll();
+                    assert watcher != null;
+                    if (generateCube(watcher)) {
+                        --chunksToGenerate;
+                    } else {
+                        cubesNotGenerated.add(watcher);
                     }
-
-                    --chunksToGenerate;
                 }
-
-                getWorld().getProfiler().endSection();//chunk[x, y, z]
             }
-
-            getWorld().getProfiler().endSection(); // chunks
+            columnsNotGenerated.forEach(this.columnsToGenerate::add);
+            cubesNotGenerated.forEach(this.cubesToGenerate::add);
         }
         getWorld().getProfiler().endStartSection("send");
         if (!this.columnsToSendToClients.isEmpty()) {
             getWorld().getProfiler().startSection("columns");
-            Iterator<ColumnWatcher> iter = this.columnsToSendToClients.iterator();
-
-            while (iter.hasNext()) {
-                ColumnWatcher next = iter.next();
-                if (next.sendToPlayers()) {
-                    iter.remove();
-                }
-            }
+            this.columnsToSendToClients.removeIf(ColumnWatcher::sendToPlayers);
             getWorld().getProfiler().endSection(); // columns
         }
         if (!this.cubesToSendToClients.isEmpty()) {
             getWorld().getProfiler().startSection("cubes");
             int toSend = 81 * 8;//sending cubes, so send 8x more at once
-            Iterator<CubeWatcher> it = this.cubesToSendToClients.iterator();
+            List<CubeWatcher> notSent = new ArrayList<>();
 
-            while (it.hasNext() && toSend >= 0) {
-                CubeWatcher playerInstance = it.next();
+            while (!this.cubesToSendToClients.isEmpty() && toSend >= 0) {
+                CubeWatcher playerInstance = this.cubesToSendToClients.poll();
+                assert playerInstance != null;
 
                 if (playerInstance.sendToPlayers()) {
-                    it.remove();
                     --toSend;
+                } else {
+                    notSent.add(playerInstance);
                 }
             }
+            notSent.forEach(this.cubesToSendToClients::add);
             getWorld().getProfiler().endSection(); // cubes
         }
 
+        getWorld().getProfiler().endStartSection("sendHeightMaps");
+        // heightmap hash is cached, so this is cheap for columns that didn't change
+        for (ColumnWatcher watcher : this.columnWatchers) {
+            watcher.sendHeightMapUpdate();
+        }
+
+        getWorld().getProfiler().endStartSection("sendBatches");
+        sendQueuedCubes();
+
         getWorld().getProfiler().endStartSection("unload");
         //if there are no players - unload everything
         if (this.players.isEmpty()) {
@@ -379,11 +451,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
      * If it can't load it or send it to client - adds it to cubesToGenerate/cubesToSendToClients
      */
     private CubeWatcher getOrCreateCubeWatcher(@Nonnull CubePos cubePos) {
-        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+        return getOrCreateCubeWatcher(cubePos.getX(), cubePos.getY(), cubePos.getZ());
+    }
+
+    private CubeWatcher getOrCreateCubeWatcher(int cubeX, int cubeY, int cubeZ) {
+        CubeWatcher cubeWatcher = this.cubeWatchers.get(cubeX, cubeY, cubeZ);
 
         if (cubeWatcher == null) {
             // make a new watcher
-            cubeWatcher = new CubeWatcher(this, cubePos);
+            cubeWatcher = new CubeWatcher(this, new CubePos(cubeX, cubeY, cubeZ));
             this.cubeWatchers.put(cubeWatcher);
 
 
@@ -405,9 +481,13 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
      * Always creates the Column.
      */
     private ColumnWatcher getOrCreateColumnWatcher(ChunkPos chunkPos) {
-        ColumnWatcher columnWatcher = this.columnWatchers.get(chunkPos.chunkXPos, chunkPos.chunkZPos);
+        return getOrCreateColumnWatcher(chunkPos.chunkXPos, chunkPos.chunkZPos);
+    }
+
+    private ColumnWatcher getOrCreateColumnWatcher(int columnX, int columnZ) {
+        ColumnWatcher columnWatcher = this.columnWatchers.get(columnX, columnZ);
         if (columnWatcher == null) {
-            columnWatcher = new ColumnWatcher(this, chunkPos);
+            columnWatcher = new ColumnWatcher(this, new ChunkPos(columnX, columnZ));
             this.columnWatchers.put(columnWatcher);
             if (columnWatcher.getColumn() == null) {
                 this.columnsToGenerate.add(columnWatcher);
@@ -432,11 +512,24 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
         }
     }
 
+    /**
+     * Called when light in the given block layer of a cube that has been sent to players changed on server side.
+     */
+    public void markLightForUpdate(Cube cube, EnumSkyBlock type, int localY) {
+        CubeWatcher cubeWatcher = this.cubeWatchers.get(cube.getX(), cube.getY(), cube.getZ());
+
+        if (cubeWatcher != null) {
+            cubeWatcher.lightChanged(type, localY);
+        }
+    }
+
     // CHECKED: 1.10.2-12.18.1.2092
     @Override
     public void addPlayer(EntityPlayerMP player) {
         PlayerWrapper playerWrapper = new PlayerWrapper(player);
         playerWrapper.updateManagedPos();
+        // added before creating watchers, cubes that are already loaded get queued for sending right away
+        this.players.put(player.getEntityId(), playerWrapper);
 
         CubePos playerCubePos = CubePos.fromEntity(player);
 
@@ -448,12 +541,17 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
             if (!chunkWatcher.containsPlayer(player)) {
                 chunkWatcher.addPlayer(player);
             }
+            if (playerWrapper.verticalSelection != null) {
+                return; // cubes are selected below
+            }
             CubeWatcher cubeWatcher = getOrCreateCubeWatcher(currentPos);
 
             assert !cubeWatcher.containsPlayer(player);
             cubeWatcher.addPlayer(player);
         });
-        this.players.put(player.getEntityId(), playerWrapper);
+        if (playerWrapper.verticalSelection != null) {
+            this.updateAdaptiveSelection(playerWrapper, playerCubePos, horizontalViewDistance, verticalViewDistance);
+        }
         this.setNeedSort();
     }
 
@@ -464,17 +562,23 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 
         CubePos playerCubePos = CubePos.fromEntity(playerWrapper.playerEntity);
 
+        if (playerWrapper.verticalSelection != null) {
+            LongArrayList cubesToRemove = this.cubesToRemoveBuffer;
+            playerWrapper.verticalSelection.clear(cubesToRemove);
+            this.removePlayerFromCubes(player, cubesToRemove);
+            cubesToRemove.clear();
+        }
+
         this.cubeSelector.forAllVisibleFrom(playerCubePos, horizontalViewDistance, verticalViewDistance, (cubePos) -> {
 
             // get the watcher
             CubeWatcher watcher = getCubeWatcher(cubePos);
-            if (watcher == null) {
-                return;//continue
+            // with adaptive vertical distance the player's cubes are removed above
+            if (watcher != null && playerWrapper.verticalSelection == null) {
+                // remove from the watcher, it also removes the watcher if it becomes empty
+                watcher.removePlayer(player);
             }
 
-            // remove from the watcher, it also removes the watcher if it becomes empty
-            watcher.removePlayer(player);
-
             // remove column watchers if needed
             ColumnWatcher columnWatcher = getColumnWatcher(cubePos.chunkPos());
             if (columnWatcher == null) {
@@ -511,45 +615,49 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 
     private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
         getWorld().getProfiler().startSection("updateMovedPlayer");
-        Set<CubePos> cubesToRemove = new HashSet<>();
-        Set<CubePos> cubesToLoad = new HashSet<>();
-        Set<ChunkPos> columnsToRemove = new HashSet<>();
-        Set<ChunkPos> columnsToLoad = new HashSet<>();
+        LongArrayList cubesToRemove = this.cubesToRemoveBuffer;
+        LongArrayList cubesToLoad = this.cubesToLoadBuffer;
+        LongArrayList columnsToRemove = this.columnsToRemoveBuffer;
+        LongArrayList columnsToLoad = this.columnsToLoadBuffer;
 
         getWorld().getProfiler().startSection("findChanges");
         // calculate new visibility
         this.cubeSelector.findChanged(oldPos, newPos, horizontalViewDistance, verticalViewDistance, cubesToRemove, cubesToLoad, columnsToRemove,
                 columnsToLoad);
+        if (entry.verticalSelection != null) {
+            cubesToRemove.clear();
+            cubesToLoad.clear();
+            entry.verticalSelection.update(this.cubeSelector, newPos, horizontalViewDistance, verticalViewDistance, this.surfaceSource,
+                    cubesToRemove, cubesToLoad);
+        }
 
         getWorld().getProfiler().endStartSection("createColumns");
         //order is important, columns first
-        columnsToLoad.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(pos);
-            assert columnWatcher.getPos().equals(pos);
+        for (int i = 0; i < columnsToLoad.size(); i++) {
+            long address = columnsToLoad.get(i);
+            ColumnWatcher columnWatcher = this.getOrCreateColumnWatcher(AddressTools.getX(address), AddressTools.getZ(address));
             columnWatcher.addPlayer(entry.playerEntity);
-        });
+        }
         getWorld().getProfiler().endStartSection("createCubes");
-        cubesToLoad.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
-            assert cubeWatcher.getCubePos().equals(pos);
+        for (int i = 0; i < cubesToLoad.size(); i++) {
+            long address = cubesToLoad.get(i);
+            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address));
             cubeWatcher.addPlayer(entry.playerEntity);
-        });
+        }
         getWorld().getProfiler().endStartSection("removeCubes");
-        cubesToRemove.forEach(pos -> {
-            CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
-            if (cubeWatcher != null) {
-                assert cubeWatcher.getCubePos().equals(pos);
-                cubeWatcher.removePlayer(entry.playerEntity);
-            }
-        });
+        this.removePlayerFromCubes(entry.playerEntity, cubesToRemove);
         getWorld().getProfiler().endStartSection("removeColumns");
-        columnsToRemove.forEach(pos -> {
-            ColumnWatcher columnWatcher = this.getColumnWatcher(pos);
+        for (int i = 0; i < columnsToRemove.size(); i++) {
+            long address = columnsToRemove.get(i);
+            ColumnWatcher columnWatcher = this.columnWatchers.get(AddressTools.getX(address), AddressTools.getZ(address));
             if (columnWatcher != null) {
-                assert columnWatcher.getPos().equals(pos);
                 columnWatcher.removePlayer(entry.playerEntity);
             }
-        });
+        }
+        cubesToRemove.clear();
+        cubesToLoad.clear();
+        columnsToRemove.clear();
+        columnsToLoad.clear();
         getWorld().getProfiler().endSection();//removeColumns
         getWorld().getProfiler().endSection();//updateMovedPlayer
     }
@@ -608,6 +716,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
                     if (!columnWatcher.containsPlayer(player)) {
                         columnWatcher.addPlayer(player);
                     }
+                    if (playerWrapper.verticalSelection != null) {
+                        return;
+                    }
                     CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(pos);
                     if (!cubeWatcher.containsPlayer(player)) {
                         cubeWatcher.addPlayer(player);
@@ -622,6 +733,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
                         oldHorizontalViewDistance, newHorizontalViewDistance,
                         oldVerticalViewDistance, newVerticalViewDistance, cubesToUnload, columnsToUnload);
 
+                if (playerWrapper.verticalSelection != null) {
+                    cubesToUnload.clear();
+                }
                 cubesToUnload.forEach(pos -> {
                     CubeWatcher cubeWatcher = this.getCubeWatcher(pos);
                     if (cubeWatcher != null && cubeWatcher.containsPlayer(player)) {
@@ -639,6 +753,9 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
                     }
                 });
             }
+            if (playerWrapper.verticalSelection != null) {
+                this.updateAdaptiveSelection(playerWrapper, playerPos, newHorizontalViewDistance, newVerticalViewDistance);
+            }
         }
 
         this.horizontalViewDistance = newHorizontalViewDistance;
@@ -646,9 +763,154 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
         this.setNeedSort();
     }
 
+    /**
+     * Loads or generates the column and sends it to players if it's done.
+     *
+     * @return true if the column doesn't need to be generated anymore
+     */
+    private boolean generateColumn(ColumnWatcher entry) {
+        getWorld().getProfiler().startSection("column[" + entry.getPos().chunkXPos + "," + entry.getPos().chunkZPos + "]");
+        boolean success = entry.getColumn() != null;
+        if (!success) {
+            boolean canGenerate = entry.hasPlayerMatching(CAN_GENERATE_CHUNKS);
+            getWorld().getProfiler().startSection("generate");
+            success = entry.providePlayerChunk(canGenerate);
+            getWorld().getProfiler().endSection(); // generate
+        }
+
+        if (success) {
+            if (entry.sendToPlayers()) {
+                this.columnsToSendToClients.remove(entry);
+            }
+        }
+
+        getWorld().getProfiler().endSection(); // column[x,z]
+        return success;
+    }
+
+    /**
+     * Loads, generates and populates the cube and sends it to players if it's done.
+     *
+     * @return true if the cube doesn't need to be generated anymore
+     */
+    private boolean generateCube(CubeWatcher watcher) {
+        getWorld().getProfiler().startSection("chunk=" + watcher.getCubePos());
+
+        boolean success = watcher.getCube() != null && watcher.getCube().isFullyPopulated() && watcher.getCube().isInitialLightingDone();
+        if (!success) {
+            boolean canGenerate = watcher.hasPlayerMatching(CAN_GENERATE_CHUNKS);
+            getWorld().getProfiler().startSection("generate");
+            success = watcher.providePlayerCube(canGenerate);
+            getWorld().getProfiler().endSection();
+        }
+
+        if (success) {
+            if (watcher.sendToPlayers()) {
+                this.cubesToSendToClients.remove(watcher);
+            }
+        }
+
+        getWorld().getProfiler().endSection();//chunk[x, y, z]
+        return success;
+    }
+
+    private void removePlayerFromCubes(EntityPlayerMP player, LongArrayList cubesToRemove) {
+        for (int i = 0; i < cubesToRemove.size(); i++) {
+            long address = cubesToRemove.get(i);
+            CubeWatcher cubeWatcher = this.cubeWatchers.get(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address));
+            if (cubeWatcher != null) {
+                cubeWatcher.removePlayer(player);
+            }
+        }
+    }
+
+    /**
+     * Reselects cubes of a player with adaptive vertical distance, see {@link AdaptiveVerticalSelection}.
+     * The player's columns must already be watched.
+     */
+    private void updateAdaptiveSelection(PlayerWrapper playerWrapper, CubePos pos, int horizontalViewDistance, int verticalViewDistance) {
+        assert playerWrapper.verticalSelection != null;
+        LongArrayList cubesToRemove = this.cubesToRemoveBuffer;
+        LongArrayList cubesToLoad = this.cubesToLoadBuffer;
+        playerWrapper.verticalSelection.update(this.cubeSelector, pos, horizontalViewDistance, verticalViewDistance, this.surfaceSource,
+                cubesToRemove, cubesToLoad);
+        for (int i = 0; i < cubesToLoad.size(); i++) {
+            long address = cubesToLoad.get(i);
+            CubeWatcher cubeWatcher = this.getOrCreateCubeWatcher(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address));
+            cubeWatcher.addPlayer(playerWrapper.playerEntity);
+        }
+        this.removePlayerFromCubes(playerWrapper.playerEntity, cubesToRemove);
+        cubesToRemove.clear();
+        cubesToLoad.clear();
+    }
+
+    /**
+     * Finds the terrain surface of a column for {@link AdaptiveVerticalSelection}: from the lowest top block of the column
+     * and its neighbors, so that cliff faces seen from the side are included, to the highest top block of the column.
+     * Unknown until the column and its neighbors are loaded.
+     */
+    private boolean getSurface(int columnX, int columnZ, int[] out) {
+        Column column = this.cubeCache.getLoadedColumn(columnX, columnZ);
+        if (column == null) {
+            return false;
+        }
+        ServerHeightMap heightMap = (ServerHeightMap) column.getOpacityIndex();
+        int minTop = heightMap.getLowestTopBlockY();
+        int maxTop = heightMap.getHighestTopBlockY();
+        for (EnumFacing facing : EnumFacing.HORIZONTALS) {
+            Column neighbor = this.cubeCache.getLoadedColumn(columnX + facing.getFrontOffsetX(), columnZ + facing.getFrontOffsetZ());
+            if (neighbor == null) {
+                return false;
+            }
+            minTop = Math.min(minTop, neighbor.getOpacityIndex().getLowestTopBlockY());
+        }
+        out[0] = blockToCube(minTop);
+        out[1] = blockToCube(maxTop);
+        return true;
+    }
+
+    /**
+     * Returns squared distance from the given position to the player or to where the player is expected to be soon,
+     * whichever is closer, used to prioritize generating and sending cubes. Without predictive loading it's the
+     * distance to the player.
+     */
+    double getPredictedDistanceSq(EntityPlayerMP player, double x, double y, double z) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        double dx = x - player.posX;
+        double dy = y - player.posY;
+        double dz = z - player.posZ;
+        double distSq = dx * dx + dy * dy + dz * dz;
+        if (playerWrapper != null) {
+            dx -= playerWrapper.lookaheadX;
+            dy -= playerWrapper.lookaheadY;
+            dz -= playerWrapper.lookaheadZ;
+            distSq = Math.min(distSq, dx * dx + dy * dy + dz * dz);
+        }
+        return distSq;
+    }
+
+    /**
+     * Horizontal variant of {@link #getPredictedDistanceSq(EntityPlayerMP, double, double, double)}, used for columns.
+     */
+    double getPredictedDistanceSq(EntityPlayerMP player, double x, double z) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        double dx = x - player.posX;
+        double dz = z - player.posZ;
+        double distSq = dx * dx + dz * dz;
+        if (playerWrapper != null) {
+            dx -= playerWrapper.lookaheadX;
+            dz -= playerWrapper.lookaheadZ;
+            distSq = Math.min(distSq, dx * dx + dz * dz);
+        }
+        return distSq;
+    }
+
     private void setNeedSort() {
         this.toGenerateNeedSort = true;
         this.toSendToClientNeedSort = true;
+        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+            playerWrapper.cubesToSendNeedSort = true;
+        }
     }
 
     @Override
@@ -661,6 +923,221 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Queue the cube of the given watcher to be sent to the player at the end of this tick
+     */
+    void scheduleCubeSend(EntityPlayerMP player, CubeWatcher cubeWatcher) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        if (playerWrapper == null) {
+            PacketDispatcher.sendTo(cubeWatcher.getCubePacket(), player);
+            return;
+        }
+        playerWrapper.cubesToSend.add(cubeWatcher);
+    }
+
+    /**
+     * Remove the cube of the given watcher from the player's send queue, if it hasn't been sent yet
+     */
+    void cancelCubeSend(EntityPlayerMP player, CubeWatcher cubeWatcher) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        if (playerWrapper != null) {
+            playerWrapper.cubesToSend.remove(cubeWatcher);
+            playerWrapper.occludedCubes.remove(cubeWatcher);
+            cubeWatcher.cubeSendDone();
+        }
+    }
+
+    /**
+     * Send queued cubes to each player as a single batch, cubes in front of the player and nearest cubes first. Cubes
+     * that don't fit into the player's send budget stay queued for the next tick.
+     * <p>
+     * The budget of each player goes up to {@link #maxCubeSendBytesPerTick} while the player's channel is writable and
+     * is halved each tick it isn't, down to {@link #MIN_CUBE_SEND_BYTES}, so that slow connections don't get a growing
+     * backlog of cube data and don't starve other players sharing the uplink.
+     */
+    private void sendQueuedCubes() {
+        for (PlayerWrapper playerWrapper : this.players.valueCollection()) {
+            if (playerWrapper.cubesToSend.isEmpty() && playerWrapper.occludedCubes.isEmpty()) {
+                continue;
+            }
+            TLongByteMap visibleCubes = OCCLUSION_CULLING ? updateVisibleCubes(playerWrapper) : null;
+            if (playerWrapper.cubesToSend.isEmpty()) {
+                continue;
+            }
+            EntityPlayerMP player = playerWrapper.playerEntity;
+            if (!isChannelWritable(player)) {
+                playerWrapper.cubeSendBudget = Math.max(MIN_CUBE_SEND_BYTES, playerWrapper.cubeSendBudget / 2);
+                continue;
+            }
+            playerWrapper.cubeSendBudget = Math.min(maxCubeSendBytesPerTick, playerWrapper.cubeSendBudget + maxCubeSendBytesPerTick / 8);
+
+            if (playerWrapper.cubesToSendNeedSort) {
+                playerWrapper.cubesToSendNeedSort = false;
+                playerWrapper.sendLook = player.getLookVec();
+                playerWrapper.cubesToSend.updateAll();
+            }
+
+            PacketCubeBatch batch = new PacketCubeBatch();
+            List<CubeWatcher> sent = new ArrayList<>();
+            List<CubeWatcher> notSent = new ArrayList<>();
+            while (!playerWrapper.cubesToSend.isEmpty()) {
+                CubeWatcher watcher = playerWrapper.cubesToSend.poll();
+                if (!watcher.containsPlayer(player) || watcher.getCube() == null) {
+                    continue;
+                }
+                if (visibleCubes != null && !visibleCubes.containsKey(getAddress(watcher.getCubePos()))) {
+                    // kept out of the sorted queue until it's visible
+                    playerWrapper.occludedCubes.add(watcher);
+                    continue;
+                }
+                PacketCube packet = watcher.getCubePacket();
+                if (!packet.isEncoded()) {
+                    // still being encoded, send it next tick instead of waiting for the encoder
+                    notSent.add(watcher);
+                    if (notSent.size() >= MAX_CUBES_SKIPPED_PER_TICK) {
+                        break;
+                    }
+                    continue;
+                }
+                if (!batch.isEmpty() && batch.getEncodedSize() + packet.getEncodedSize() > playerWrapper.cubeSendBudget) {
+                    notSent.add(watcher);
+                    break;
+                }
+                batch.addCube(packet);
+                sent.add(watcher);
+            }
+            notSent.forEach(playerWrapper.cubesToSend::add);
+            sent.forEach(CubeWatcher::cubeSendDone);
+            if (!batch.isEmpty()) {
+                PacketDispatcher.sendTo(batch, player);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the cube of the given watcher is queued to be sent to the player and hasn't been sent yet. Updates
+     * of such cubes don't need to be sent, the player will get the current state of the whole cube.
+     */
+    boolean isCubeSendQueued(EntityPlayerMP player, CubeWatcher cubeWatcher) {
+        PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+        return playerWrapper != null
+                && (playerWrapper.cubesToSend.contains(cubeWatcher) || playerWrapper.occludedCubes.contains(cubeWatcher));
+    }
+
+    /**
+     * Get cubes visible from the player's position, recomputing them if the player moved to another cube or
+     * {@link #VISIBLE_CUBES_UPDATE_INTERVAL} ticks passed. After recomputing, occluded cubes that became visible are
+     * queued to be sent again.
+     */
+    private TLongByteMap updateVisibleCubes(PlayerWrapper playerWrapper) {
+        CubePos playerPos = CubePos.fromEntity(playerWrapper.playerEntity);
+        long time = this.getWorldServer().getTotalWorldTime();
+        if (playerWrapper.visibleCubesOrigin == null || !playerPos.equals(playerWrapper.visibleCubesOrigin)
+                || time - playerWrapper.visibleCubesTime >= VISIBLE_CUBES_UPDATE_INTERVAL) {
+            findVisibleCubes(playerPos, playerWrapper.visibleCubes);
+            playerWrapper.visibleCubesOrigin = playerPos;
+            playerWrapper.visibleCubesTime = time;
+
+            Iterator<CubeWatcher> it = playerWrapper.occludedCubes.iterator();
+            while (it.hasNext()) {
+                CubeWatcher watcher = it.next();
+                if (playerWrapper.visibleCubes.containsKey(getAddress(watcher.getCubePos()))) {
+                    it.remove();
+                    playerWrapper.cubesToSend.add(watcher);
+                }
+            }
+        }
+        return playerWrapper.visibleCubes;
+    }
+
+    /**
+     * Walks from the given cube through faces connected by non-opaque blocks, cave culling style. Cubes that aren't
+     * loaded are assumed to be open.
+     * <p>
+     * The result maps addresses of visible cubes to the mask of faces (by {@link EnumFacing#getIndex()}) through which
+     * they have been entered. A cube entered again through another face is walked again, as different faces may lead
+     * to different neighbors.
+     */
+    private void findVisibleCubes(CubePos origin, TLongByteMap visible) {
+        visible.clear();
+        LongArrayDeque queue = this.visibilityQueue;
+        ByteArrayDeque queueEntryFaces = this.visibilityQueueEntryFaces;
+
+        for (int dx = -ALWAYS_VISIBLE_RADIUS; dx <= ALWAYS_VISIBLE_RADIUS; dx++) {
+            for (int dy = -ALWAYS_VISIBLE_RADIUS; dy <= ALWAYS_VISIBLE_RADIUS; dy++) {
+                for (int dz = -ALWAYS_VISIBLE_RADIUS; dz <= ALWAYS_VISIBLE_RADIUS; dz++) {
+                    // not entered through any face yet, so still walked when reached
+                    visible.put(AddressTools.getAddress(origin.getX() + dx, origin.getY() + dy, origin.getZ() + dz), (byte) 0);
+                }
+            }
+        }
+        visible.put(getAddress(origin), (byte) ALL_FACES);
+        queue.addLast(getAddress(origin));
+        queueEntryFaces.addLast((byte) -1);
+        while (!queue.isEmpty()) {
+            long address = queue.removeFirst();
+            int entryFaceIndex = queueEntryFaces.removeFirst();
+            int x = AddressTools.getX(address);
+            int y = AddressTools.getY(address);
+            int z = AddressTools.getZ(address);
+            EnumFacing entryFace = entryFaceIndex < 0 ? null : EnumFacing.getFront(entryFaceIndex);
+            Cube cube = entryFace == null ? null : this.cubeCache.getLoadedCube(x, y, z);
+            long connectivity = cube == null ? FaceConnectivity.ALL_CONNECTED : cube.getFaceConnectivity();
+
+            for (EnumFacing facing : EnumFacing.values()) {
+                if (entryFace != null && (facing == entryFace || !FaceConnectivity.isConnected(connectivity, entryFace, facing))) {
+                    continue;
+                }
+                int nextX = x + facing.getFrontOffsetX();
+                int nextY = y + facing.getFrontOffsetY();
+                int nextZ = z + facing.getFrontOffsetZ();
+                if (Math.abs(nextX - origin.getX()) > this.horizontalViewDistance
+                        || Math.abs(nextY - origin.getY()) > this.verticalViewDistance
+                        || Math.abs(nextZ - origin.getZ()) > this.horizontalViewDistance) {
+                    continue;
+                }
+                long next = AddressTools.getAddress(nextX, nextY, nextZ);
+                int nextEntryFace = facing.getOpposite().getIndex();
+                byte entered = visible.get(next); // no entry value is 0
+                if ((entered & (1 << nextEntryFace)) != 0) {
+                    continue;
+                }
+                visible.put(next, (byte) (entered | (1 << nextEntryFace)));
+                queue.addLast(next);
+                queueEntryFaces.addLast((byte) nextEntryFace);
+            }
+        }
+    }
+
+    private static long getAddress(CubePos pos) {
+        return AddressTools.getAddress(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    private static boolean isChannelWritable(EntityPlayerMP player) {
+        //noinspection ConstantConditions - null for fake players
+        if (player.connection == null) {
+            return true;
+        }
+        return player.connection.getNetworkManager().channel().isWritable();
+    }
+
+    /**
+     * Returns squared distance to the cube, scaled by up to 4x for cubes behind the player. Lower values are sent first.
+     */
+    private static double getSendPriority(CubeWatcher watcher, EntityPlayerMP player, Vec3d look) {
+        CubePos pos = watcher.getCubePos();
+        double dx = pos.getXCenter() - player.posX;
+        double dy = pos.getYCenter() - (player.posY + player.getEyeHeight());
+        double dz = pos.getZCenter() - player.posZ;
+        double distSq = dx * dx + dy * dy + dz * dz;
+        if (distSq < Cube.SIZE * Cube.SIZE) {
+            // the player is in or right next to this cube
+            return distSq;
+        }
+        double cos = (dx * look.xCoord + dy * look.yCoord + dz * look.zCoord) / Math.sqrt(distSq);
+        return distSq * (2.5 - 1.5 * cos);
+    }
+
     void addToUpdateEntry(CubeWatcher cubeWatcher) {
         this.cubeWatchersToUpdate.add(cubeWatcher);
     }
@@ -675,6 +1152,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
         this.cubesToSendToClients.remove(cubeWatcher);
         if (cubeWatcher.getCube() != null) {
             cubeWatcher.getCube().getTickets().remove(cubeWatcher); // remove the ticket, so this Cube can unload
+            cubeWatcher.getCube().setSentToPlayers(false);
         }
         //don't unload, ChunkGc unloads chunks
     }
@@ -707,10 +1185,93 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
     private static final class PlayerWrapper {
 
         final EntityPlayerMP playerEntity;
+        /**
+         * Cubes queued to be sent to this player, see {@link #sendQueuedCubes()}. Ordered by
+         * {@link #getSendPriority(CubeWatcher, EntityPlayerMP, Vec3d)} for the player's look direction in
+         * {@link #sendLook}, reordered only after players move to another cube.
+         */
+        final IndexedPriorityQueue<CubeWatcher> cubesToSend;
+        Vec3d sendLook;
+        boolean cubesToSendNeedSort;
+        /**
+         * Maximum amount of cube data in bytes sent to this player in the next tick
+         */
+        int cubeSendBudget = MIN_CUBE_SEND_BYTES;
+        /**
+         * Queued cubes that weren't visible to this player when last checked. They aren't sorted with
+         * {@link #cubesToSend} and are moved back when {@link #visibleCubes} are recomputed and contain them.
+         */
+        final Set<CubeWatcher> occludedCubes = new HashSet<>();
+        /**
+         * Cubes visible from {@link #visibleCubesOrigin}, used only with occlusion culling enabled
+         */
+        final TLongByteMap visibleCubes = new TLongByteHashMap();
+        @Nullable CubePos visibleCubesOrigin;
+        long visibleCubesTime;
+        /**
+         * Cubes selected for this player, used only with adaptive vertical distance enabled
+         */
+        @Nullable final AdaptiveVerticalSelection verticalSelection;
         private double managedPosY;
+        /**
+         * Smoothed velocity in blocks per tick, and the offset from the player to their predicted position
+         */
+        private double velocityX, velocityY, velocityZ;
+        double lookaheadX, lookaheadY, lookaheadZ;
+        private double prevPosX, prevPosY, prevPosZ;
+        // lookahead when queues were last reordered for it
+        private double sortedLookaheadX, sortedLookaheadY, sortedLookaheadZ;
 
         PlayerWrapper(EntityPlayerMP player) {
             this.playerEntity = player;
+            this.sendLook = player.getLookVec();
+            this.cubesToSend = new IndexedPriorityQueue<>(watcher -> getSendPriority(watcher, player, this.sendLook));
+            this.verticalSelection = ADAPTIVE_VERTICAL_DISTANCE ? new AdaptiveVerticalSelection() : null;
+            this.prevPosX = player.posX;
+            this.prevPosY = player.posY;
+            this.prevPosZ = player.posZ;
+        }
+
+        /**
+         * Updates the smoothed velocity and predicted position of the player.
+         *
+         * @return true if the predicted position moved at least {@link #LOOKAHEAD_RESORT_DISTANCE} since the last time
+         * this returned true, so queues ordered by predicted distance need to be reordered
+         */
+        boolean updateLookahead(double maxLookahead) {
+            double dx = playerEntity.posX - this.prevPosX;
+            double dy = playerEntity.posY - this.prevPosY;
+            double dz = playerEntity.posZ - this.prevPosZ;
+            this.prevPosX = playerEntity.posX;
+            this.prevPosY = playerEntity.posY;
+            this.prevPosZ = playerEntity.posZ;
+
+            if (dx * dx + dy * dy + dz * dz > TELEPORT_DISTANCE * TELEPORT_DISTANCE) {
+                this.velocityX = this.velocityY = this.velocityZ = 0;
+            } else {
+                this.velocityX += (dx - this.velocityX) * VELOCITY_SMOOTHING;
+                this.velocityY += (dy - this.velocityY) * VELOCITY_SMOOTHING;
+                this.velocityZ += (dz - this.velocityZ) * VELOCITY_SMOOTHING;
+            }
+            double scale = LOOKAHEAD_TICKS;
+            double speed = Math.sqrt(velocityX * velocityX + velocityY * velocityY + velocityZ * velocityZ);
+            if (speed * scale > maxLookahead) {
+                scale = maxLookahead / speed;
+            }
+            this.lookaheadX = this.velocityX * scale;
+            this.lookaheadY = this.velocityY * scale;
+            this.lookaheadZ = this.velocityZ * scale;
+
+            double changeX = this.lookaheadX - this.sortedLookaheadX;
+            double changeY = this.lookaheadY - this.sortedLookaheadY;
+            double changeZ = this.lookaheadZ - this.sortedLookaheadZ;
+            if (changeX * changeX + changeY * changeY + changeZ * changeZ < LOOKAHEAD_RESORT_DISTANCE * LOOKAHEAD_RESORT_DISTANCE) {
+                return false;
+            }
+            this.sortedLookaheadX = this.lookaheadX;
+            this.sortedLookaheadY = this.lookaheadY;
+            this.sortedLookaheadZ = this.lookaheadZ;
+            return true;
         }
 
         void updateManagedPos() {
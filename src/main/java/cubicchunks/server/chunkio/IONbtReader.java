@@ -33,6 +33,7 @@ import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.ServerHeightMap;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.world.cube.OffHeapBlockStorage;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.block.Block;
 import net.minecraft.nbt.NBTTagCompound;
@@ -181,6 +182,9 @@ public class IONbtReader {
             }
 
             ebs.removeInvalidBlocks();
+            if (OffHeapBlockStorage.ENABLED) {
+                ebs = OffHeapBlockStorage.copyOf(ebs, !world.getProvider().hasNoSky());
+            }
             cube.setStorage(ebs);
         }
     }
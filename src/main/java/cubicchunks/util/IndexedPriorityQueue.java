@@ -0,0 +1,261 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Binary min-heap of elements ordered by a cached priority, with lookup of heap position by element.
+ * <p>
+ * Adding, removing and updating priority of a single element is O(log n). Priorities are computed by the key function
+ * only when an element is added or updated, so comparisons don't recompute anything. When many priorities change at
+ * once, {@link #updateAll()} recomputes them and rebuilds the heap in O(n).
+ * <p>
+ * Elements are compared by {@code equals} and {@code hashCode}.
+ *
+ * @param <T> element type
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class IndexedPriorityQueue<T> {
+
+    private final ToDoubleFunction<T> keyFunction;
+    private final TObjectIntMap<T> indexes = new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+
+    private Object[] elements = new Object[16];
+    private double[] keys = new double[16];
+    private int size = 0;
+
+    /**
+     * @param keyFunction function computing the priority of an element, elements with lower value come first
+     */
+    public IndexedPriorityQueue(ToDoubleFunction<T> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(T element) {
+        return indexes.containsKey(element);
+    }
+
+    /**
+     * Adds the element to the queue, or updates its priority if it's already in the queue.
+     */
+    public void add(T element) {
+        int index = indexes.get(element);
+        if (index >= 0) {
+            update(index);
+            return;
+        }
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        index = size++;
+        elements[index] = element;
+        keys[index] = keyFunction.applyAsDouble(element);
+        indexes.put(element, index);
+        siftUp(index);
+    }
+
+    /**
+     * Recomputes priority of the element if it's in the queue.
+     */
+    public void update(T element) {
+        int index = indexes.get(element);
+        if (index >= 0) {
+            update(index);
+        }
+    }
+
+    /**
+     * Recomputes priorities of all elements and rebuilds the heap.
+     */
+    public void updateAll() {
+        for (int i = 0; i < size; i++) {
+            keys[i] = keyFunction.applyAsDouble(elementAt(i));
+        }
+        heapify();
+    }
+
+    /**
+     * @return true if the element was in the queue
+     */
+    public boolean remove(T element) {
+        int index = indexes.remove(element);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Removes all elements matching the predicate. Elements are tested in no particular order.
+     */
+    public void removeIf(Predicate<T> predicate) {
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            T element = elementAt(i);
+            if (predicate.test(element)) {
+                indexes.remove(element);
+                continue;
+            }
+            elements[newSize] = element;
+            keys[newSize] = keys[i];
+            newSize++;
+        }
+        Arrays.fill(elements, newSize, size, null);
+        size = newSize;
+        heapify();
+    }
+
+    /**
+     * @return the element with the lowest priority value, or null if the queue is empty
+     */
+    @Nullable
+    public T peek() {
+        return size == 0 ? null : elementAt(0);
+    }
+
+    /**
+     * @return the priority value of {@link #peek()}, or positive infinity if the queue is empty
+     */
+    public double peekPriority() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+    }
+
+    /**
+     * Removes and returns the element with the lowest priority value, or null if the queue is empty
+     */
+    @Nullable
+    public T poll() {
+        if (size == 0) {
+            return null;
+        }
+        T element = elementAt(0);
+        indexes.remove(element);
+        removeAt(0);
+        return element;
+    }
+
+    public void clear() {
+        Arrays.fill(elements, 0, size, null);
+        indexes.clear();
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T elementAt(int index) {
+        return (T) elements[index];
+    }
+
+    private void update(int index) {
+        keys[index] = keyFunction.applyAsDouble(elementAt(index));
+        siftDown(siftUp(index));
+    }
+
+    private void removeAt(int index) {
+        int last = --size;
+        if (index != last) {
+            move(last, index);
+        }
+        elements[last] = null;
+        if (index != last) {
+            siftDown(siftUp(index));
+        }
+    }
+
+    private void heapify() {
+        for (int i = 0; i < size; i++) {
+            indexes.put(elementAt(i), i);
+        }
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private int siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (keys[parent] <= keys[index]) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+        return index;
+    }
+
+    private int siftDown(int index) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                return index;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[index] <= keys[child]) {
+                return index;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void move(int from, int to) {
+        elements[to] = elements[from];
+        keys[to] = keys[from];
+        indexes.put(elementAt(to), to);
+    }
+
+    private void swap(int a, int b) {
+        Object element = elements[a];
+        double key = keys[a];
+        elements[a] = elements[b];
+        keys[a] = keys[b];
+        elements[b] = element;
+        keys[b] = key;
+        indexes.put(elementAt(a), a);
+        indexes.put(elementAt(b), b);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import mcp.MethodsReturnNonnullByDefault;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Allocates fixed size slots of native memory. Memory is reserved in large direct buffers (slabs), each split into
+ * a number of equally sized slots. Freed slots are cleared and reused, slabs are never returned to the system.
+ * <p>
+ * All methods are thread safe.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class OffHeapSlabAllocator {
+
+    private final int slotSize;
+    private final int slotsPerSlab;
+
+    @Nonnull private final List<ByteBuffer> slabs = new ArrayList<>();
+    @Nonnull private final ArrayDeque<Slot> freeSlots = new ArrayDeque<>();
+
+    private int usedSlots;
+
+    /**
+     * Creates a new allocator
+     *
+     * @param slotSize size of a single slot in bytes, must be a multiple of 8
+     * @param slotsPerSlab amount of slots reserved at once when there are no free slots
+     */
+    public OffHeapSlabAllocator(int slotSize, int slotsPerSlab) {
+        if (slotSize <= 0 || (slotSize & 7) != 0) {
+            throw new IllegalArgumentException("Slot size must be a positive multiple of 8, but was " + slotSize);
+        }
+        if (slotsPerSlab <= 0 || (long) slotSize * slotsPerSlab > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid slab size: " + slotsPerSlab + " slots of " + slotSize + " bytes");
+        }
+        this.slotSize = slotSize;
+        this.slotsPerSlab = slotsPerSlab;
+    }
+
+    /**
+     * Allocate a new slot. The memory of a new slot is always zeroed.
+     *
+     * @return the allocated slot
+     */
+    public synchronized Slot allocate() {
+        if (freeSlots.isEmpty()) {
+            newSlab();
+        }
+        Slot slot = freeSlots.poll();
+        slot.isFree = false;
+        usedSlots++;
+        return slot;
+    }
+
+    /**
+     * Return the slot to this allocator. The slot must not be used after it's been freed.
+     *
+     * @param slot the slot to free
+     */
+    public synchronized void free(Slot slot) {
+        if (slot.allocator != this) {
+            throw new IllegalArgumentException("Slot doesn't belong to this allocator");
+        }
+        if (slot.isFree) {
+            throw new IllegalStateException("Slot already freed");
+        }
+        ByteBuffer buf = slot.buffer;
+        for (int i = 0; i < slotSize; i += Long.BYTES) {
+            buf.putLong(slot.offset + i, 0L);
+        }
+        slot.isFree = true;
+        usedSlots--;
+        freeSlots.add(slot);
+    }
+
+    /**
+     * @return amount of native memory currently used by allocated slots, in bytes
+     */
+    public synchronized long getUsedBytes() {
+        return (long) usedSlots * slotSize;
+    }
+
+    /**
+     * @return total amount of native memory reserved by this allocator, in bytes
+     */
+    public synchronized long getReservedBytes() {
+        return (long) slabs.size() * slotsPerSlab * slotSize;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    private void newSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(slotSize * slotsPerSlab).order(ByteOrder.nativeOrder());
+        slabs.add(slab);
+        for (int i = 0; i < slotsPerSlab; i++) {
+            freeSlots.add(new Slot(this, slab, i * slotSize));
+        }
+    }
+
+    /**
+     * A single fixed size region of native memory. Accessors take offsets relative to the start of the slot.
+     */
+    public static final class Slot {
+
+        @Nonnull private final OffHeapSlabAllocator allocator;
+        @Nonnull private final ByteBuffer buffer;
+        private final int offset;
+        private boolean isFree = true;
+
+        private Slot(OffHeapSlabAllocator allocator, ByteBuffer buffer, int offset) {
+            this.allocator = allocator;
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        public byte getByte(int index) {
+            return buffer.get(offset + index);
+        }
+
+        public void putByte(int index, byte value) {
+            buffer.put(offset + index, value);
+        }
+
+        public char getChar(int index) {
+            return buffer.getChar(offset + index);
+        }
+
+        public void putChar(int index, char value) {
+            buffer.putChar(offset + index, value);
+        }
+
+        public void getBytes(int index, byte[] dst) {
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = buffer.get(offset + index + i);
+            }
+        }
+
+        public void putBytes(int index, byte[] src) {
+            for (int i = 0; i < src.length; i++) {
+                buffer.put(offset + index + i, src[i]);
+            }
+        }
+    }
+}
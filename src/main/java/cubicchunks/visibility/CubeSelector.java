@@ -23,6 +23,8 @@
  */
 package cubicchunks.visibility;
 
+import com.carrotsearch.hppc.LongArrayList;
+import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.ChunkPos;
@@ -36,10 +38,35 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public abstract class CubeSelector {
 
+    /**
+     * When enabled, worlds that don't choose their cube selector use {@link EllipsoidalCubeSelector}.
+     */
+    private static final boolean ELLIPSOIDAL_BY_DEFAULT =
+            System.getProperty("cubicchunks.ellipsoidalView", "false").equalsIgnoreCase("true");
+
+    /**
+     * Returns the cube selector used by worlds that don't choose their own,
+     * see {@link cubicchunks.world.provider.ICubicWorldProvider#createCubeSelector()}
+     */
+    public static CubeSelector createDefault() {
+        return ELLIPSOIDAL_BY_DEFAULT ? new EllipsoidalCubeSelector() : new CuboidalCubeSelector();
+    }
+
     public abstract void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer);
 
+    /**
+     * Finds cubes and columns that stop and start being visible when moving from oldAddress to newAddress.
+     * Positions are added as packed addresses, see {@link AddressTools#getAddress(int, int, int)} for cubes and
+     * {@link AddressTools#getAddress(int, int)} for columns. The lists are not cleared.
+     */
     public abstract void findChanged(CubePos oldAddress, CubePos newAddress, int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad, Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad);
+            LongArrayList cubesToRemove, LongArrayList cubesToLoad, LongArrayList columnsToRemove, LongArrayList columnsToLoad);
+
+    /**
+     * Returns how far up and down from the center cubes are selected in the column at the given horizontal offset
+     * from the center, or -1 if no cubes in that column are selected.
+     */
+    public abstract int getColumnVerticalRadius(int dx, int dz, int horizontalViewDistance, int verticalViewDistance);
 
     public abstract void findAllUnloadedOnViewDistanceDecrease(CubePos playerAddress, int oldHorizontalViewDistance, int newHorizontalViewDistance,
             int oldVerticalViewDistance, int newVerticalViewDistance, Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload);
@@ -23,6 +23,8 @@
  */
 package cubicchunks.visibility;
 
+import com.carrotsearch.hppc.LongArrayList;
+import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import mcp.MethodsReturnNonnullByDefault;
 import net.minecraft.util.math.ChunkPos;
@@ -50,50 +52,50 @@ public class CuboidalCubeSelector extends CubeSelector {
         }
     }
 
+    /**
+     * Computes the difference of the old and new view cuboids directly, so only the slabs entering and leaving the
+     * view distance are visited.
+     */
     @Override
     public void findChanged(CubePos oldPos, CubePos newPos,
             int horizontalViewDistance, int verticalViewDistance,
-            Set<CubePos> cubesToRemove, Set<CubePos> cubesToLoad,
-            Set<ChunkPos> columnsToRemove, Set<ChunkPos> columnsToLoad) {
+            LongArrayList cubesToRemove, LongArrayList cubesToLoad,
+            LongArrayList columnsToRemove, LongArrayList columnsToLoad) {
         int oldX = oldPos.getX();
         int oldY = oldPos.getY();
         int oldZ = oldPos.getZ();
         int newX = newPos.getX();
         int newY = newPos.getY();
         int newZ = newPos.getZ();
-        int dx = newX - oldX;
-        int dy = newY - oldY;
-        int dz = newZ - oldZ;
 
-        for (int currentX = newX - horizontalViewDistance; currentX <= newX + horizontalViewDistance; ++currentX) {
-            for (int currentZ = newZ - horizontalViewDistance; currentZ <= newZ + horizontalViewDistance; ++currentZ) {
-                //first handle columns
-                //is current position outside of the old render distance square?
-                if (!this.isPointWithinCubeVolume(oldX, 0, oldZ, currentX, 0, currentZ, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToLoad.add(new ChunkPos(currentX, currentZ));
-                }
+        addDifference(newX, newY, newZ, oldX, oldY, oldZ, horizontalViewDistance, verticalViewDistance, cubesToLoad, columnsToLoad);
+        addDifference(oldX, oldY, oldZ, newX, newY, newZ, horizontalViewDistance, verticalViewDistance, cubesToRemove, columnsToRemove);
+    }
 
-                //if we moved the current point to where it would be previously,
-                //would it be outside of current render distance square?
-                if (!this.isPointWithinCubeVolume(newX, 0, newZ, currentX - dx, 0, currentZ - dz, horizontalViewDistance, verticalViewDistance)) {
-                    columnsToRemove.add(new ChunkPos(currentX - dx, currentZ - dz));
+    /**
+     * Adds cubes and columns visible from position a, but not from position b.
+     */
+    private void addDifference(int aX, int aY, int aZ, int bX, int bY, int bZ, int horizontal, int vertical,
+            LongArrayList cubes, LongArrayList columns) {
+        int bMinY = bY - vertical;
+        int bMaxY = bY + vertical;
+        for (int x = aX - horizontal; x <= aX + horizontal; x++) {
+            boolean xInB = Math.abs(x - bX) <= horizontal;
+            for (int z = aZ - horizontal; z <= aZ + horizontal; z++) {
+                boolean columnInB = xInB && Math.abs(z - bZ) <= horizontal;
+                if (!columnInB) {
+                    columns.add(AddressTools.getAddress(x, z));
                 }
-                for (int currentY = newY - verticalViewDistance; currentY <= newY + verticalViewDistance; ++currentY) {
-                    //now handle cubes, the same way
-                    if (!this.isPointWithinCubeVolume(oldX, oldY, oldZ, currentX, currentY, currentZ,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToLoad.add(new CubePos(currentX, currentY, currentZ));
-                    }
-                    if (!this.isPointWithinCubeVolume(newX, newY, newZ, currentX - dx, currentY - dy, currentZ - dz,
-                            horizontalViewDistance, verticalViewDistance)) {
-                        cubesToRemove.add(new CubePos(currentX - dx, currentY - dy, currentZ - dz));
+                for (int y = aY - vertical; y <= aY + vertical; y++) {
+                    if (columnInB && y >= bMinY && y <= bMaxY) {
+                        // skip the part of the column shared with b
+                        y = bMaxY;
+                        continue;
                     }
+                    cubes.add(AddressTools.getAddress(x, y, z));
                 }
             }
         }
-
-        assert cubesToLoad.stream().allMatch(pos -> !cubesToRemove.contains(pos)) : "cubesToRemove contains element from cubesToLoad!";
-        assert columnsToLoad.stream().allMatch(pos -> !columnsToRemove.contains(pos)) : "columnsToRemove contains element from columnsToLoad!";
     }
 
     @Override
@@ -120,6 +122,14 @@ public class CuboidalCubeSelector extends CubeSelector {
         }
     }
 
+    @Override
+    public int getColumnVerticalRadius(int dx, int dz, int horizontalViewDistance, int verticalViewDistance) {
+        if (Math.abs(dx) > horizontalViewDistance || Math.abs(dz) > horizontalViewDistance) {
+            return -1;
+        }
+        return verticalViewDistance;
+    }
+
     private boolean isPointWithinCubeVolume(int cubeX, int cubeY, int cubeZ, int pointX, int pointY, int pointZ, int horizontal, int vertical) {
         int dx = cubeX - pointX;
         int dy = cubeY - pointY;
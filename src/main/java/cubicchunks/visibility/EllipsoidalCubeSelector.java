@@ -0,0 +1,148 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.visibility;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.cursors.LongCursor;
+import cubicchunks.util.AddressTools;
+import cubicchunks.util.CubePos;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Selects cubes within an ellipsoid with horizontal radius equal to horizontal view distance and vertical radius equal
+ * to vertical view distance. This is about half of the cubes selected by {@link CuboidalCubeSelector}, without the
+ * corners that are out of render distance anyway.
+ * <p>
+ * Every column of the ellipsoid is a continuous range of cube y positions, so all methods work on these ranges.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class EllipsoidalCubeSelector extends CubeSelector {
+
+    @Override
+    public void forAllVisibleFrom(CubePos cubePos, int horizontalViewDistance, int verticalViewDistance, Consumer<CubePos> consumer) {
+        int cubeX = cubePos.getX();
+        int cubeY = cubePos.getY();
+        int cubeZ = cubePos.getZ();
+        for (int x = cubeX - horizontalViewDistance; x <= cubeX + horizontalViewDistance; x++) {
+            for (int z = cubeZ - horizontalViewDistance; z <= cubeZ + horizontalViewDistance; z++) {
+                int radius = getVerticalRadius(x - cubeX, z - cubeZ, horizontalViewDistance, verticalViewDistance);
+                for (int y = cubeY - radius; y <= cubeY + radius; y++) {
+                    consumer.accept(new CubePos(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void findChanged(CubePos oldPos, CubePos newPos,
+            int horizontalViewDistance, int verticalViewDistance,
+            LongArrayList cubesToRemove, LongArrayList cubesToLoad,
+            LongArrayList columnsToRemove, LongArrayList columnsToLoad) {
+        addDifference(newPos, horizontalViewDistance, verticalViewDistance, oldPos, horizontalViewDistance, verticalViewDistance,
+                cubesToLoad, columnsToLoad);
+        addDifference(oldPos, horizontalViewDistance, verticalViewDistance, newPos, horizontalViewDistance, verticalViewDistance,
+                cubesToRemove, columnsToRemove);
+    }
+
+    @Override
+    public void findAllUnloadedOnViewDistanceDecrease(CubePos playerPos,
+            int oldHorizontalViewDistance, int newHorizontalViewDistance,
+            int oldVerticalViewDistance, int newVerticalViewDistance,
+            Set<CubePos> cubesToUnload, Set<ChunkPos> columnsToUnload) {
+        LongArrayList cubes = new LongArrayList();
+        LongArrayList columns = new LongArrayList();
+        addDifference(playerPos, oldHorizontalViewDistance, oldVerticalViewDistance, playerPos, newHorizontalViewDistance, newVerticalViewDistance,
+                cubes, columns);
+        for (LongCursor cursor : cubes) {
+            cubesToUnload.add(new CubePos(cursor.value));
+        }
+        for (LongCursor cursor : columns) {
+            columnsToUnload.add(new ChunkPos(AddressTools.getX(cursor.value), AddressTools.getZ(cursor.value)));
+        }
+    }
+
+    /**
+     * Adds cubes and columns selected around position a, but not around position b.
+     */
+    private void addDifference(CubePos a, int aHorizontal, int aVertical, CubePos b, int bHorizontal, int bVertical,
+            LongArrayList cubes, LongArrayList columns) {
+        int aX = a.getX();
+        int aY = a.getY();
+        int aZ = a.getZ();
+        for (int x = aX - aHorizontal; x <= aX + aHorizontal; x++) {
+            for (int z = aZ - aHorizontal; z <= aZ + aHorizontal; z++) {
+                int aRadius = getVerticalRadius(x - aX, z - aZ, aHorizontal, aVertical);
+                if (aRadius < 0) {
+                    continue;
+                }
+                int bRadius = getVerticalRadius(x - b.getX(), z - b.getZ(), bHorizontal, bVertical);
+                if (bRadius < 0) {
+                    columns.add(AddressTools.getAddress(x, z));
+                }
+                int bMinY = b.getY() - bRadius;
+                int bMaxY = b.getY() + bRadius;
+                for (int y = aY - aRadius; y <= aY + aRadius; y++) {
+                    if (bRadius >= 0 && y >= bMinY && y <= bMaxY) {
+                        // skip the part of the column shared with b
+                        y = bMaxY;
+                        continue;
+                    }
+                    cubes.add(AddressTools.getAddress(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getColumnVerticalRadius(int dx, int dz, int horizontalViewDistance, int verticalViewDistance) {
+        return getVerticalRadius(dx, dz, horizontalViewDistance, verticalViewDistance);
+    }
+
+    /**
+     * Returns how far up and down from the center cubes are selected in the column at the given horizontal offset,
+     * or -1 if no cubes in that column are selected.
+     * <p>
+     * Radii are extended by half a cube, so that cubes exactly at view distance along the axes are included, the same
+     * as with {@link CuboidalCubeSelector}.
+     */
+    static int getVerticalRadius(int dx, int dz, int horizontalViewDistance, int verticalViewDistance) {
+        if (Math.abs(dx) > horizontalViewDistance || Math.abs(dz) > horizontalViewDistance) {
+            return -1;
+        }
+        double horizontalRadius = horizontalViewDistance + 0.5;
+        double verticalRadius = verticalViewDistance + 0.5;
+        double horizontal = (dx * dx + dz * dz) / (horizontalRadius * horizontalRadius);
+        if (horizontal > 1) {
+            return -1;
+        }
+        return Math.min(verticalViewDistance, (int) (verticalRadius * Math.sqrt(1 - horizontal)));
+    }
+}
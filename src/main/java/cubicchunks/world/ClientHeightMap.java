@@ -84,7 +84,16 @@ public class ClientHeightMap implements IHeightMap {
     }
 
     public void setHeight(int localX, int localZ, int height) {
-        hmap[getIndex(localX, localZ)] = height;
+        int index = getIndex(localX, localZ);
+        if (heightMapLowest != Coords.NO_HEIGHT) {
+            if (height < heightMapLowest) {
+                heightMapLowest = height;
+            } else if (hmap[index] == heightMapLowest) {
+                // the lowest value may have been raised, recompute it lazily
+                heightMapLowest = Coords.NO_HEIGHT;
+            }
+        }
+        hmap[index] = height;
     }
 
     public void setData(@Nonnull byte[] data) {
@@ -95,6 +104,7 @@ public class ClientHeightMap implements IHeightMap {
             for (int i = 0; i < 256; i++) {
                 hmap[i] = in.readInt();
             }
+            heightMapLowest = Coords.NO_HEIGHT;
 
             in.close();
         } catch (IOException e) {
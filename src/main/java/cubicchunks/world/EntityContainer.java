@@ -51,12 +51,19 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @MethodsReturnNonnullByDefault
 public class EntityContainer {
 
+    /**
+     * Shared, never modified map used by all containers that don't hold any entities. Creating a
+     * ClassInheritanceMultiMap creates a lookup list for every known entity class, and almost all cubes never hold
+     * any entity.
+     */
+    @Nonnull private static final ClassInheritanceMultiMap<Entity> NO_ENTITIES = ClassInheritanceMultiMapFactory.create(Entity.class);
+
     @Nonnull private ClassInheritanceMultiMap<Entity> entities;
     private boolean hasActiveEntities; //TODO: hasActiveEntitys is like an isModifyed right?
     private long lastSaveTime;
 
     public EntityContainer() {
-        this.entities = ClassInheritanceMultiMapFactory.create(Entity.class);
+        this.entities = NO_ENTITIES;
         this.hasActiveEntities = false;
         this.lastSaveTime = 0;
     }
@@ -66,11 +73,17 @@ public class EntityContainer {
     //=======================================
 
     public void addEntity(Entity entity) {
+        if (this.entities == NO_ENTITIES) {
+            this.entities = ClassInheritanceMultiMapFactory.create(Entity.class);
+        }
         this.entities.add(entity);
         this.hasActiveEntities = true;
     }
 
     public boolean remove(Entity entity) {
+        if (this.entities == NO_ENTITIES) {
+            return false;
+        }
         return this.entities.remove(entity);
     }
 
@@ -84,6 +97,9 @@ public class EntityContainer {
     // CHECKED: 1.11-13.19.0.2148
     public void getEntitiesWithinAABBForEntity(@Nullable Entity excluded, AxisAlignedBB queryBox, List<Entity> out,
             Predicate<? super Entity> predicate) {
+        if (this.entities == NO_ENTITIES) {
+            return;
+        }
         for (Entity entity : this.entities) {
 
             // handle entity exclusion
@@ -104,6 +120,10 @@ public class EntityContainer {
     // CHECKED: 1.11-13.19.0.2148
     public <T extends Entity> void getEntitiesOfTypeWithinAAAB(Class<? extends T> entityType, AxisAlignedBB queryBox, List<T> out,
             @Nullable Predicate<? super T> predicate) {
+        // getByClass modifies the map when it sees a new class, the shared empty map must not be touched
+        if (this.entities == NO_ENTITIES) {
+            return;
+        }
         for (T entity : this.entities.getByClass(entityType)) {
             if (entity.getEntityBoundingBox().intersectsWith(queryBox) &&
                     (predicate == null || predicate.apply(entity))) {
@@ -126,7 +146,7 @@ public class EntityContainer {
     }
 
     public void clear() {
-        this.entities.clear();
+        this.entities = NO_ENTITIES;
     }
 
     public Collection<Entity> getEntities() {
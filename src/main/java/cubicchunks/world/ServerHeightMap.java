@@ -67,11 +67,16 @@ public class ServerHeightMap implements IHeightMap {
     @Nonnull private final int[][] segments;
 
     private int heightMapLowest;
+    private int heightMapHighest;
 
     private int hash;
 
     private boolean needsHash;
 
+    /**
+     * Incremented on every change, so that users can cheaply check if the heightmap changed since they last looked
+     */
+    private int modificationCount;
 
     public ServerHeightMap() {
         this.ymin = new int[Cube.SIZE * Cube.SIZE];
@@ -86,6 +91,7 @@ public class ServerHeightMap implements IHeightMap {
         }
 
         this.heightMapLowest = Coords.NO_HEIGHT;
+        this.heightMapHighest = Coords.NO_HEIGHT;
         this.hash = 0;
         this.needsHash = true;
     }
@@ -129,7 +135,9 @@ public class ServerHeightMap implements IHeightMap {
         }
 
         this.heightMapLowest = Coords.NO_HEIGHT;
+        this.heightMapHighest = Coords.NO_HEIGHT;
         this.needsHash = true;
+        this.modificationCount++;
     }
 
     @Override
@@ -238,6 +246,25 @@ public class ServerHeightMap implements IHeightMap {
         return this.heightMapLowest;
     }
 
+    /**
+     * Returns the highest top block Y of this column, or a value not greater than {@link Coords#NO_HEIGHT}
+     * if the column has no opaque blocks. Cached the same way as {@link #getLowestTopBlockY()}.
+     */
+    public int getHighestTopBlockY() {
+        if (this.heightMapHighest == Coords.NO_HEIGHT) {
+            this.heightMapHighest = Integer.MIN_VALUE;
+            for (int i = 0; i < this.ymax.length; i++) {
+                if (this.ymax[i] > this.heightMapHighest) {
+                    this.heightMapHighest = this.ymax[i];
+                }
+            }
+            if (this.heightMapHighest == Coords.NO_HEIGHT) {
+                this.heightMapHighest--; // don't recalculate this on every call
+            }
+        }
+        return this.heightMapHighest;
+    }
+
 
     // Helper ----------------------------------------------------------------------------------------------------------
 
@@ -746,6 +773,14 @@ public class ServerHeightMap implements IHeightMap {
         return (localZ << 4) | localX;
     }
 
+    /**
+     * Returns a value that changes each time this heightmap is modified. Unlike {@link #hashCode()}, it never stays the
+     * same after a change.
+     */
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+
     @Override
     public int hashCode() {
         if (this.needsHash) {
@@ -829,6 +864,7 @@ public class ServerHeightMap implements IHeightMap {
             }
             this.segments[i] = segments;
         }
+        this.modificationCount++;
     }
 
     private void writeData(DataOutputStream out) throws IOException {
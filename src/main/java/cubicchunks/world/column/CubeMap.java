@@ -148,7 +148,7 @@ class CubeMap implements Iterable<Cube> {
         if (!isToTickValid()) {
             int count = 0;
             for (Cube cube : cubes) {
-                if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+                if (cube.getTickets().shouldTick() && cube.getStorage() != null) {
                     count++;
                 }
             }
@@ -156,7 +156,7 @@ class CubeMap implements Iterable<Cube> {
             toBlockTick = new ExtendedBlockStorage[count];
             count = 0;
             for (Cube cube : cubes) {
-                if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+                if (cube.getTickets().shouldTick() && cube.getStorage() != null) {
                     toBlockTick[count++] = cube.getStorage();
                 }
             }
@@ -168,7 +168,7 @@ class CubeMap implements Iterable<Cube> {
     private boolean isToTickValid() {
         int index = 0;
         for (Cube cube : cubes) {
-            if (cube.getStorage() != null && cube.getTickets().shouldTick()) {
+            if (cube.getTickets().shouldTick() && cube.getStorage() != null) {
                 if (index >= toBlockTick.length) {
                     return false;
                 }
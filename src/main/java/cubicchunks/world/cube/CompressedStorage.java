@@ -0,0 +1,209 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Immutable, compressed copy of blocks and light of a cube. Used to keep cubes that are loaded but not ticking in
+ * memory using less space.
+ * <p>
+ * Blocks are stored as a palette of global block state IDs followed by run-length encoded palette indices, light
+ * arrays are stored as run-length encoded bytes. All numbers are written as varints.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public final class CompressedStorage {
+
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int LIGHT_BYTES = BLOCKS / 2;
+
+    @Nonnull private final byte[] data;
+    private final boolean isEmpty;
+
+    private CompressedStorage(byte[] data, boolean isEmpty) {
+        this.data = data;
+        this.isEmpty = isEmpty;
+    }
+
+    /**
+     * Compress blocks and light of the given storage
+     *
+     * @param storage the storage to compress
+     * @param hasSkyLight whether sky light should be included
+     *
+     * @return the compressed storage
+     */
+    public static CompressedStorage compress(ExtendedBlockStorage storage, boolean hasSkyLight) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        if (storage.isEmpty()) {
+            writeVarInt(out, 0);
+        } else {
+            Map<IBlockState, Integer> palette = new IdentityHashMap<>();
+            int[] indices = new int[BLOCKS];
+            for (int i = 0; i < BLOCKS; i++) {
+                IBlockState state = storage.get(i & 15, i >> 8, i >> 4 & 15);
+                Integer index = palette.get(state);
+                if (index == null) {
+                    index = palette.size();
+                    palette.put(state, index);
+                }
+                indices[i] = index;
+            }
+            int[] paletteIds = new int[palette.size()];
+            palette.forEach((state, index) -> paletteIds[index] = Block.BLOCK_STATE_IDS.get(state));
+
+            writeVarInt(out, paletteIds.length);
+            for (int id : paletteIds) {
+                writeVarInt(out, id);
+            }
+            int i = 0;
+            while (i < BLOCKS) {
+                int value = indices[i];
+                int start = i;
+                while (i < BLOCKS && indices[i] == value) {
+                    i++;
+                }
+                writeVarInt(out, i - start);
+                writeVarInt(out, value);
+            }
+        }
+
+        writeLight(out, storage.getBlocklightArray().getData());
+        if (hasSkyLight) {
+            NibbleArray skyLight = storage.getSkylightArray();
+            writeLight(out, skyLight == null ? new byte[LIGHT_BYTES] : skyLight.getData());
+        }
+        return new CompressedStorage(out.toByteArray(), storage.isEmpty());
+    }
+
+    /**
+     * Write the blocks and light stored in this object into the given storage. The storage is expected to be empty.
+     *
+     * @param storage the target storage
+     * @param hasSkyLight whether sky light is included
+     */
+    public void decompress(ExtendedBlockStorage storage, boolean hasSkyLight) {
+        int[] pos = {0};
+
+        int paletteSize = readVarInt(pos);
+        if (paletteSize != 0) {
+            IBlockState[] palette = new IBlockState[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                IBlockState state = Block.BLOCK_STATE_IDS.getByValue(readVarInt(pos));
+                palette[i] = state == null ? Blocks.AIR.getDefaultState() : state;
+            }
+            int i = 0;
+            while (i < BLOCKS) {
+                int length = readVarInt(pos);
+                IBlockState state = palette[readVarInt(pos)];
+                if (state.getBlock() == Blocks.AIR) {
+                    i += length;
+                    continue;
+                }
+                for (int end = i + length; i < end; i++) {
+                    storage.set(i & 15, i >> 8, i >> 4 & 15, state);
+                }
+            }
+        }
+
+        storage.setBlocklightArray(new NibbleArray(readLight(pos)));
+        if (hasSkyLight) {
+            storage.setSkylightArray(new NibbleArray(readLight(pos)));
+        }
+    }
+
+    /**
+     * @return true if the compressed storage has no non-air blocks
+     */
+    public boolean isEmpty() {
+        return isEmpty;
+    }
+
+    /**
+     * @return size of the compressed data, in bytes
+     */
+    public int getSize() {
+        return data.length;
+    }
+
+    private static void writeLight(ByteArrayOutputStream out, byte[] light) {
+        int i = 0;
+        while (i < light.length) {
+            byte value = light[i];
+            int start = i;
+            while (i < light.length && light[i] == value) {
+                i++;
+            }
+            writeVarInt(out, i - start);
+            out.write(value);
+        }
+    }
+
+    private byte[] readLight(int[] pos) {
+        byte[] light = new byte[LIGHT_BYTES];
+        int i = 0;
+        while (i < LIGHT_BYTES) {
+            int length = readVarInt(pos);
+            byte value = data[pos[0]++];
+            for (int end = i + length; i < end; i++) {
+                light[i] = value;
+            }
+        }
+        return light;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private int readVarInt(int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -57,6 +57,7 @@ import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.entity.EntityEvent;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -119,6 +120,28 @@ public class Cube implements XYZAddressable {
      * Blocks in this cube
      */
     @Nullable private ExtendedBlockStorage storage;
+    /**
+     * Compressed blocks of this cube, only set while the cube is cold. {@link #storage} is null while this is set.
+     */
+    @Nullable private CompressedStorage compressedStorage;
+    /**
+     * Have blocks or light of this cube been accessed since the last call to {@link #tryCompressStorage()}?
+     */
+    private boolean storageAccessed;
+    /**
+     * Incremented whenever blocks, light or tile entities of this cube change
+     */
+    private int revision;
+    /**
+     * Cached result of {@link FaceConnectivity#compute}, valid until blocks of this cube change. Light and tile entity
+     * changes don't affect it.
+     */
+    private long faceConnectivity;
+    private boolean faceConnectivityValid;
+    /**
+     * Has this cube been sent to players on server side, so that its light changes need to be sent too
+     */
+    private boolean sentToPlayers;
     /**
      * Entities in this cube
      */
@@ -126,13 +149,17 @@ public class Cube implements XYZAddressable {
     /**
      * The position of tile entities in this cube, and their corresponding tile entity
      */
-    @Nonnull private final Map<BlockPos, TileEntity> tileEntityMap;
+    @Nonnull private Map<BlockPos, TileEntity> tileEntityMap;
     /**
-     * The positions of tile entities queued for creation
+     * The positions of tile entities queued for creation, created when the first position is queued. Positions may be
+     * queued from other threads, so it's only accessed through {@link #getTileEntityPosQueue()} when adding.
      */
-    @Nonnull private final ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
+    @Nullable private volatile ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue;
 
-    @Nonnull private final LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
+    /**
+     * Pending skylight updates, created when the first update is scheduled
+     */
+    @Nullable private LightingManager.CubeLightUpdateInfo cubeLightUpdateInfo;
 
     /**
      * Is this cube loaded and not queued for unload
@@ -154,10 +181,10 @@ public class Cube implements XYZAddressable {
         this.tickets = new TicketList();
 
         this.entities = new EntityContainer();
-        this.tileEntityMap = new HashMap<>();
-        this.tileEntityPosQueue = new ConcurrentLinkedQueue<>();
-
-        this.cubeLightUpdateInfo = world.getLightingManager().createCubeLightUpdateInfo(this);
+        // most cubes never contain tile entities or light updates, these are created only when needed
+        this.tileEntityMap = Collections.emptyMap();
+        this.tileEntityPosQueue = null;
+        this.cubeLightUpdateInfo = null;
 
         this.storage = NULL_STORAGE;
     }
@@ -248,6 +275,7 @@ public class Cube implements XYZAddressable {
     public IBlockState getBlockState(int blockX, int blockY, int blockZ) {
         // ignore debug world type, it can't be cubic chunks type
         try {
+            touchStorage();
             if (storage == NULL_STORAGE) {
                 return Blocks.AIR.getDefaultState();
             }
@@ -281,6 +309,7 @@ public class Cube implements XYZAddressable {
         int localY = Coords.blockToLocal(pos.getY());
         int localZ = Coords.blockToLocal(pos.getZ());
 
+        touchStorage();
         IBlockState oldstate = getBlockState(pos);
 
         if (oldstate == newstate) {
@@ -346,6 +375,8 @@ public class Cube implements XYZAddressable {
         }
 
         this.isModified = true; // a block state changes, so we will need saving
+        this.revision++;
+        this.faceConnectivityValid = false;
         return oldstate;
     }
 
@@ -362,6 +393,7 @@ public class Cube implements XYZAddressable {
     public int getLightFor(EnumSkyBlock lightType, BlockPos pos) {
         // it may not look like this but it's actually the same logic as in vanilla
         // seriously, it is the same
+        touchStorage();
         if (storage == NULL_STORAGE) {
             if (this.column.canSeeSky(pos)) {
                 return lightType.defaultLightValue;
@@ -397,11 +429,13 @@ public class Cube implements XYZAddressable {
      */
     public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int light) {
         this.isModified = true;
+        this.revision++;
 
         int localX = Coords.blockToLocal(pos.getX());
         int localY = Coords.blockToLocal(pos.getY());
         int localZ = Coords.blockToLocal(pos.getZ());
 
+        touchStorage();
         if (storage == NULL_STORAGE) {
             newStorage();
         }
@@ -416,6 +450,10 @@ public class Cube implements XYZAddressable {
                 this.storage.setExtBlocklightValue(localX, localY, localZ, light);
                 break;
         }
+        if (this.sentToPlayers) {
+            // mark light dirty separately from blocks, so that only light is sent to clients
+            ((ICubicWorldServer) world).getPlayerCubeMap().markLightForUpdate(this, lightType, localY);
+        }
     }
 
     /**
@@ -490,6 +528,11 @@ public class Cube implements XYZAddressable {
 
         this.entities.addEntity(entity);
         this.isModified = true;
+
+        if (!this.world.isRemote()) {
+            // so that the entity is found in this cube before the tracker updates next tick
+            ((ICubicWorldServer) this.world).getCubicEntityTracker().entityChangedCube(entity);
+        }
     }
 
     /**
@@ -530,7 +573,7 @@ public class Cube implements XYZAddressable {
                 blockEntity = createTileEntity(pos);
                 this.world.setTileEntity(pos, blockEntity);
             } else if (createType == Chunk.EnumCreateEntityType.QUEUED) {
-                this.tileEntityPosQueue.add(pos);
+                this.getTileEntityPosQueue().add(pos);
             }
         }
 
@@ -581,7 +624,11 @@ public class Cube implements XYZAddressable {
 
             // install the new tile entity
             tileEntity.validate();
+            if (this.tileEntityMap.isEmpty()) {
+                this.tileEntityMap = new HashMap<>();
+            }
             this.tileEntityMap.put(pos, tileEntity);
+            this.revision++;
             tileEntity.onLoad();
             //not need to set isModified, this should be handled by World
         }
@@ -597,9 +644,10 @@ public class Cube implements XYZAddressable {
     public void removeTileEntity(BlockPos pos) {
         // this check prevents tile entities being removed from cubes when calling onUnload
         // this way they can still be saved after Cube is unloaded
-        if (this.isCubeLoaded) {
+        if (this.isCubeLoaded && !this.tileEntityMap.isEmpty()) {
             TileEntity tileEntity = this.tileEntityMap.remove(pos);
             if (tileEntity != null) {
+                this.revision++;
                 tileEntity.invalidate();
             }
         }
@@ -643,12 +691,16 @@ public class Cube implements XYZAddressable {
         if (!this.isInitialLightingDone && this.isPopulated) {
             this.tryDoFirstLight(); //TODO: Very icky light population code! REMOVE IT!
         }
-        if (!tryToTickFaster) {
+        if (!tryToTickFaster && this.cubeLightUpdateInfo != null) {
             this.cubeLightUpdateInfo.tick();
         }
 
-        while (!this.tileEntityPosQueue.isEmpty()) {
-            BlockPos blockpos = this.tileEntityPosQueue.poll();
+        ConcurrentLinkedQueue<BlockPos> tileEntityPosQueue = this.tileEntityPosQueue;
+        if (tileEntityPosQueue == null) {
+            return;
+        }
+        while (!tileEntityPosQueue.isEmpty()) {
+            BlockPos blockpos = tileEntityPosQueue.poll();
 
             IBlockState state = this.getBlockState(blockpos);
             Block block = state.getBlock();
@@ -688,6 +740,9 @@ public class Cube implements XYZAddressable {
      * @return <code>true</code> if this cube contains only air blocks, <code>false</code> otherwise
      */
     public boolean isEmpty() {
+        if (compressedStorage != null) {
+            return compressedStorage.isEmpty();
+        }
         return storage == null || this.storage.isEmpty();
     }
 
@@ -778,19 +833,99 @@ public class Cube implements XYZAddressable {
     }
 
     @Nullable public ExtendedBlockStorage getStorage() {
+        touchStorage();
         return this.storage;
     }
 
     @Nullable public ExtendedBlockStorage setStorage(@Nullable ExtendedBlockStorage ebs) {
+        this.compressedStorage = null;
+        this.revision++;
+        this.faceConnectivityValid = false;
+        if (this.storage != ebs && this.storage instanceof OffHeapBlockStorage) {
+            ((OffHeapBlockStorage) this.storage).free();
+        }
         return this.storage = ebs;
     }
 
     private void newStorage() {
-        storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(getY()), world.getProvider().hasSkyLight());
+        if (OffHeapBlockStorage.ENABLED && !world.isRemote()) {
+            storage = new OffHeapBlockStorage(Coords.cubeToMinBlock(getY()), world.getProvider().hasSkyLight());
+        } else {
+            storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(getY()), world.getProvider().hasSkyLight());
+        }
+    }
+
+    /**
+     * Release native memory used by this cube's block storage, if it has any. Called when the cube is unloaded, after
+     * it has been saved.
+     */
+    public void freeStorage() {
+        this.compressedStorage = null;
+        if (this.storage instanceof OffHeapBlockStorage) {
+            ((OffHeapBlockStorage) this.storage).free();
+            this.storage = NULL_STORAGE;
+        }
+    }
+
+    private ConcurrentLinkedQueue<BlockPos> getTileEntityPosQueue() {
+        ConcurrentLinkedQueue<BlockPos> queue = this.tileEntityPosQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = this.tileEntityPosQueue;
+                if (queue == null) {
+                    this.tileEntityPosQueue = queue = new ConcurrentLinkedQueue<>();
+                }
+            }
+        }
+        return queue;
     }
 
     /**
-     * Retrieve a map of positions to their respective tile entities
+     * Compress blocks and light of this cube if it's not ticking and they haven't been accessed since the last call to
+     * this method. The data is transparently decompressed on the next access.
+     *
+     * @return <code>true</code> if the storage has been compressed, <code>false</code> otherwise
+     */
+    public boolean tryCompressStorage() {
+        boolean wasAccessed = this.storageAccessed;
+        this.storageAccessed = false;
+        if (wasAccessed || this.storage == NULL_STORAGE || this.world.isRemote() || this.tickets.shouldTick()) {
+            return false;
+        }
+        if (!this.faceConnectivityValid) {
+            // computed now so that occlusion culling doesn't decompress the cube again
+            this.faceConnectivity = FaceConnectivity.compute(this.storage);
+            this.faceConnectivityValid = true;
+        }
+        CompressedStorage compressed = CompressedStorage.compress(this.storage, world.getProvider().hasSkyLight());
+        // blocks don't change, so unlike setStorage this keeps the revision and face connectivity
+        if (this.storage instanceof OffHeapBlockStorage) {
+            ((OffHeapBlockStorage) this.storage).free();
+        }
+        this.storage = NULL_STORAGE;
+        this.compressedStorage = compressed;
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if blocks and light of this cube are currently compressed
+     */
+    public boolean isStorageCompressed() {
+        return this.compressedStorage != null;
+    }
+
+    private void touchStorage() {
+        if (this.compressedStorage != null) {
+            CompressedStorage compressed = this.compressedStorage;
+            this.compressedStorage = null;
+            newStorage();
+            compressed.decompress(this.storage, world.getProvider().hasSkyLight());
+        }
+        this.storageAccessed = true;
+    }
+
+    /**
+     * Retrieve a map of positions to their respective tile entities. The returned map should not be modified directly.
      *
      * @return a map containing all tile entities in this cube
      */
@@ -842,6 +977,40 @@ public class Cube implements XYZAddressable {
         }
     }
 
+    /**
+     * Retrieve a number that changes whenever blocks, light or the set of tile entities in this cube change. Can be
+     * used to check whether data derived from this cube is still up to date.
+     *
+     * @return the current revision of this cube
+     */
+    public int getRevision() {
+        return this.revision;
+    }
+
+    /**
+     * Set whether this cube has been sent to players. Light changes of cubes that haven't been sent aren't tracked.
+     * Used by the server side player cube map.
+     *
+     * @param sentToPlayers true if players have this cube
+     */
+    public void setSentToPlayers(boolean sentToPlayers) {
+        this.sentToPlayers = sentToPlayers;
+    }
+
+    /**
+     * Get which faces of this cube are connected through non-opaque blocks. Computed when first needed after blocks of
+     * the cube change.
+     *
+     * @return face connectivity bits, see {@link FaceConnectivity}
+     */
+    public long getFaceConnectivity() {
+        if (!this.faceConnectivityValid) {
+            this.faceConnectivity = FaceConnectivity.compute(this.getStorage());
+            this.faceConnectivityValid = true;
+        }
+        return this.faceConnectivity;
+    }
+
     /**
      * Check if any modifications happened to this cube since it was loaded from disk
      *
@@ -860,10 +1029,12 @@ public class Cube implements XYZAddressable {
     }
     
     /**
-     * Mark this cube as one, who need to be saved to disk
+     * Mark this cube as one, who need to be saved to disk. Called when tile entity data changes, so it's also a new
+     * revision.
      */
     public void markDirty() {
         this.isModified = true;
+        this.revision++;
     }
     
     /**
@@ -896,7 +1067,15 @@ public class Cube implements XYZAddressable {
         return 41 * hash + getZ();
     }
 
+    /**
+     * Retrieve pending light updates for this cube, creating the update info if there wasn't any before
+     *
+     * @return light update info of this cube
+     */
     public LightingManager.CubeLightUpdateInfo getCubeLightUpdateInfo() {
+        if (this.cubeLightUpdateInfo == null) {
+            this.cubeLightUpdateInfo = world.getLightingManager().createCubeLightUpdateInfo(this);
+        }
         return this.cubeLightUpdateInfo;
     }
 
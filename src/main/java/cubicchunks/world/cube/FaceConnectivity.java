@@ -0,0 +1,141 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import cubicchunks.util.AddressTools;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Computes which faces of a cube are connected to each other through non-opaque blocks, similar to vanilla cave
+ * culling. Used on server side to find cubes that can't be seen by a player.
+ * <p>
+ * Connectivity is stored as a long, bit {@code from * 6 + to} is set when face {@code to} can be reached from face
+ * {@code from}, where faces are {@link EnumFacing#getIndex()}.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class FaceConnectivity {
+
+    public static final long ALL_CONNECTED = (1L << 36) - 1;
+    public static final long NONE_CONNECTED = 0;
+
+    private static final EnumFacing[] FACINGS = EnumFacing.values();
+
+    public static boolean isConnected(long connectivity, EnumFacing from, EnumFacing to) {
+        return (connectivity & (1L << (from.getIndex() * 6 + to.getIndex()))) != 0;
+    }
+
+    public static long compute(@Nullable ExtendedBlockStorage storage) {
+        if (storage == null || storage.isEmpty()) {
+            return ALL_CONNECTED;
+        }
+        boolean[] visited = new boolean[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+        int[] queue = new int[Cube.SIZE * Cube.SIZE * Cube.SIZE];
+        long connectivity = NONE_CONNECTED;
+
+        // only blocks on the cube edges can connect faces, so flood fill only from those
+        for (int start = 0; start < visited.length; start++) {
+            if (visited[start] || getFaces(start) == 0 || isOpaque(storage, start)) {
+                continue;
+            }
+            int faces = 0;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            visited[start] = true;
+            while (head < tail) {
+                int address = queue[head++];
+                faces |= getFaces(address);
+                int x = AddressTools.getLocalX(address);
+                int y = AddressTools.getLocalY(address);
+                int z = AddressTools.getLocalZ(address);
+                for (EnumFacing facing : FACINGS) {
+                    int nx = x + facing.getFrontOffsetX();
+                    int ny = y + facing.getFrontOffsetY();
+                    int nz = z + facing.getFrontOffsetZ();
+                    if (nx < 0 || ny < 0 || nz < 0 || nx >= Cube.SIZE || ny >= Cube.SIZE || nz >= Cube.SIZE) {
+                        continue;
+                    }
+                    int next = AddressTools.getLocalAddress(nx, ny, nz);
+                    if (visited[next] || isOpaque(storage, next)) {
+                        continue;
+                    }
+                    visited[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+            for (int from = 0; from < 6; from++) {
+                if ((faces & (1 << from)) == 0) {
+                    continue;
+                }
+                for (int to = 0; to < 6; to++) {
+                    if ((faces & (1 << to)) != 0) {
+                        connectivity |= 1L << (from * 6 + to);
+                    }
+                }
+            }
+            if (connectivity == ALL_CONNECTED) {
+                break;
+            }
+        }
+        return connectivity;
+    }
+
+    private static boolean isOpaque(ExtendedBlockStorage storage, int address) {
+        return storage.get(AddressTools.getLocalX(address), AddressTools.getLocalY(address), AddressTools.getLocalZ(address))
+                .isOpaqueCube();
+    }
+
+    // bit mask of faces (by EnumFacing index) the block at given local address touches
+    private static int getFaces(int address) {
+        int x = AddressTools.getLocalX(address);
+        int y = AddressTools.getLocalY(address);
+        int z = AddressTools.getLocalZ(address);
+        int faces = 0;
+        if (y == 0) {
+            faces |= 1 << EnumFacing.DOWN.getIndex();
+        }
+        if (y == Cube.SIZE - 1) {
+            faces |= 1 << EnumFacing.UP.getIndex();
+        }
+        if (z == 0) {
+            faces |= 1 << EnumFacing.NORTH.getIndex();
+        }
+        if (z == Cube.SIZE - 1) {
+            faces |= 1 << EnumFacing.SOUTH.getIndex();
+        }
+        if (x == 0) {
+            faces |= 1 << EnumFacing.WEST.getIndex();
+        }
+        if (x == Cube.SIZE - 1) {
+            faces |= 1 << EnumFacing.EAST.getIndex();
+        }
+        return faces;
+    }
+}
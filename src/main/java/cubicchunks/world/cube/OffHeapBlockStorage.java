@@ -0,0 +1,279 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import cubicchunks.util.OffHeapSlabAllocator;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.BlockStateContainer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * ExtendedBlockStorage that keeps block state IDs and light in native memory instead of the java heap. Used on
+ * server side when enabled with <code>-Dcubicchunks.offHeapStorage=true</code>.
+ * <p>
+ * Block states are stored as 16-bit global state IDs, light uses the same nibble layout as {@link NibbleArray}.
+ * {@link #getData()}, {@link #getBlocklightArray()} and {@link #getSkylightArray()} return heap copies of the data,
+ * changes made to them are not reflected in this storage. The storage must be {@link #free() freed} when the cube is
+ * unloaded, it can't be used after that.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+public class OffHeapBlockStorage extends ExtendedBlockStorage {
+
+    public static final boolean ENABLED = System.getProperty("cubicchunks.offHeapStorage", "false").equalsIgnoreCase("true");
+
+    private static final int BLOCKS = Cube.SIZE * Cube.SIZE * Cube.SIZE;
+    private static final int LIGHT_BYTES = BLOCKS / 2;
+
+    private static final int BLOCKS_OFFSET = 0;
+    private static final int BLOCK_LIGHT_OFFSET = BLOCKS_OFFSET + BLOCKS * Character.BYTES;
+    private static final int SKY_LIGHT_OFFSET = BLOCK_LIGHT_OFFSET + LIGHT_BYTES;
+    private static final int SLOT_SIZE = SKY_LIGHT_OFFSET + LIGHT_BYTES;
+
+    // 256 slots = 3MB per slab
+    private static final OffHeapSlabAllocator ALLOCATOR = new OffHeapSlabAllocator(SLOT_SIZE, 256);
+
+    private final boolean hasSkyLight;
+    @Nullable private OffHeapSlabAllocator.Slot slot;
+    private int blockRefCount;
+    private int tickRefCount;
+
+    public OffHeapBlockStorage(int y, boolean storeSkylight) {
+        // heap arrays are not allocated by the vanilla constructor for this class, see MixinExtendedBlockStorage
+        super(y, storeSkylight);
+        this.hasSkyLight = storeSkylight;
+        this.slot = ALLOCATOR.allocate();
+    }
+
+    /**
+     * Create an off-heap copy of the given storage
+     *
+     * @param storage the storage to copy
+     * @param storeSkylight whether sky light should be stored
+     *
+     * @return the new storage
+     */
+    public static OffHeapBlockStorage copyOf(ExtendedBlockStorage storage, boolean storeSkylight) {
+        OffHeapBlockStorage copy = new OffHeapBlockStorage(storage.getYLocation(), storeSkylight);
+        OffHeapSlabAllocator.Slot slot = copy.slot();
+        if (!storage.isEmpty()) {
+            BlockStateContainer data = storage.getData();
+            for (int i = 0; i < BLOCKS; i++) {
+                IBlockState state = data.get(i & 15, i >> 8, i >> 4 & 15);
+                slot.putChar(BLOCKS_OFFSET + i * Character.BYTES, (char) Block.BLOCK_STATE_IDS.get(state));
+            }
+            copy.removeInvalidBlocks();
+        }
+        slot.putBytes(BLOCK_LIGHT_OFFSET, storage.getBlocklightArray().getData());
+        if (storeSkylight && storage.getSkylightArray() != null) {
+            slot.putBytes(SKY_LIGHT_OFFSET, storage.getSkylightArray().getData());
+        }
+        return copy;
+    }
+
+    /**
+     * @return native memory used by all off-heap block storages, in bytes
+     */
+    public static long getUsedBytes() {
+        return ALLOCATOR.getUsedBytes();
+    }
+
+    /**
+     * @return native memory reserved for off-heap block storages, in bytes
+     */
+    public static long getReservedBytes() {
+        return ALLOCATOR.getReservedBytes();
+    }
+
+    /**
+     * Release the native memory of this storage. The storage can't be used anymore after calling this method.
+     */
+    public void free() {
+        if (slot != null) {
+            ALLOCATOR.free(slot);
+            slot = null;
+        }
+    }
+
+    @Override
+    public IBlockState get(int x, int y, int z) {
+        IBlockState state = Block.BLOCK_STATE_IDS.getByValue(slot().getChar(BLOCKS_OFFSET + index(x, y, z) * Character.BYTES));
+        return state == null ? Blocks.AIR.getDefaultState() : state;
+    }
+
+    @Override
+    public void set(int x, int y, int z, IBlockState state) {
+        Block oldBlock = get(x, y, z).getBlock();
+        Block newBlock = state.getBlock();
+
+        if (oldBlock != Blocks.AIR) {
+            --blockRefCount;
+            if (oldBlock.getTickRandomly()) {
+                --tickRefCount;
+            }
+        }
+        if (newBlock != Blocks.AIR) {
+            ++blockRefCount;
+            if (newBlock.getTickRandomly()) {
+                ++tickRefCount;
+            }
+        }
+        slot().putChar(BLOCKS_OFFSET + index(x, y, z) * Character.BYTES, (char) Block.BLOCK_STATE_IDS.get(state));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return blockRefCount == 0;
+    }
+
+    @Override
+    public boolean getNeedsRandomTick() {
+        return tickRefCount > 0;
+    }
+
+    @Override
+    public void setExtSkylightValue(int x, int y, int z, int value) {
+        if (hasSkyLight) {
+            setNibble(SKY_LIGHT_OFFSET, index(x, y, z), value);
+        }
+    }
+
+    @Override
+    public int getExtSkylightValue(int x, int y, int z) {
+        return hasSkyLight ? getNibble(SKY_LIGHT_OFFSET, index(x, y, z)) : 0;
+    }
+
+    @Override
+    public void setExtBlocklightValue(int x, int y, int z, int value) {
+        setNibble(BLOCK_LIGHT_OFFSET, index(x, y, z), value);
+    }
+
+    @Override
+    public int getExtBlocklightValue(int x, int y, int z) {
+        return getNibble(BLOCK_LIGHT_OFFSET, index(x, y, z));
+    }
+
+    @Override
+    public void removeInvalidBlocks() {
+        blockRefCount = 0;
+        tickRefCount = 0;
+        for (int i = 0; i < BLOCKS; i++) {
+            Block block = get(i & 15, i >> 8, i >> 4 & 15).getBlock();
+            if (block != Blocks.AIR) {
+                ++blockRefCount;
+                if (block.getTickRandomly()) {
+                    ++tickRefCount;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a heap copy of the block data
+     */
+    @Override
+    public BlockStateContainer getData() {
+        BlockStateContainer container = new BlockStateContainer();
+        if (isEmpty()) {
+            return container;
+        }
+        for (int i = 0; i < BLOCKS; i++) {
+            IBlockState state = get(i & 15, i >> 8, i >> 4 & 15);
+            if (state.getBlock() != Blocks.AIR) {
+                container.set(i & 15, i >> 8, i >> 4 & 15, state);
+            }
+        }
+        return container;
+    }
+
+    /**
+     * @return a heap copy of the block light data
+     */
+    @Override
+    public NibbleArray getBlocklightArray() {
+        byte[] data = new byte[LIGHT_BYTES];
+        slot().getBytes(BLOCK_LIGHT_OFFSET, data);
+        return new NibbleArray(data);
+    }
+
+    /**
+     * @return a heap copy of the sky light data, or null if this storage doesn't have sky light
+     */
+    @Nullable @Override
+    public NibbleArray getSkylightArray() {
+        if (!hasSkyLight) {
+            return null;
+        }
+        byte[] data = new byte[LIGHT_BYTES];
+        slot().getBytes(SKY_LIGHT_OFFSET, data);
+        return new NibbleArray(data);
+    }
+
+    @Override
+    public void setBlocklightArray(NibbleArray newBlocklightArray) {
+        slot().putBytes(BLOCK_LIGHT_OFFSET, newBlocklightArray.getData());
+    }
+
+    @Override
+    public void setSkylightArray(NibbleArray newSkylightArray) {
+        if (hasSkyLight) {
+            slot().putBytes(SKY_LIGHT_OFFSET, newSkylightArray.getData());
+        }
+    }
+
+    private OffHeapSlabAllocator.Slot slot() {
+        if (slot == null) {
+            throw new IllegalStateException("Off-heap block storage at y=" + getYLocation() + " used after being freed");
+        }
+        return slot;
+    }
+
+    private int getNibble(int offset, int index) {
+        int b = slot().getByte(offset + (index >> 1));
+        return (index & 1) == 0 ? b & 0xF : b >> 4 & 0xF;
+    }
+
+    private void setNibble(int offset, int index, int value) {
+        OffHeapSlabAllocator.Slot slot = slot();
+        int i = offset + (index >> 1);
+        int b = slot.getByte(i);
+        if ((index & 1) == 0) {
+            b = b & 0xF0 | value & 0xF;
+        } else {
+            b = b & 0x0F | (value & 0xF) << 4;
+        }
+        slot.putByte(i, (byte) b);
+    }
+
+    private static int index(int x, int y, int z) {
+        return y << 8 | z << 4 | x;
+    }
+}
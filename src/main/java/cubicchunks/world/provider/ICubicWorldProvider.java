@@ -24,6 +24,7 @@
 package cubicchunks.world.provider;
 
 import cubicchunks.util.AddressTools;
+import cubicchunks.visibility.CubeSelector;
 import cubicchunks.worldgen.generator.ICubeGenerator;
 import mcp.MethodsReturnNonnullByDefault;
 
@@ -54,4 +55,13 @@ public interface ICubicWorldProvider {
      * @return a new Cube generator
      */
     @Nullable ICubeGenerator createCubeGenerator();
+
+    /**
+     * Creates the cube selector that decides which cubes are loaded and sent around players in this world
+     *
+     * @return a new cube selector
+     */
+    default CubeSelector createCubeSelector() {
+        return CubeSelector.createDefault();
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.cube.OffHeapBlockStorage;
+import cubicchunks.world.type.FlatCubicWorldType;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.world.GameType;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.chunk.storage.AnvilSaveHandler;
+import net.minecraft.world.storage.WorldInfo;
+import net.minecraftforge.event.world.WorldEvent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestOffHeapStorageUnload {
+
+    @Nonnull @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWorldUnloadFreesOffHeapStorage() throws IOException {
+        assertTrue("Tests must run with -Dcubicchunks.offHeapStorage=true", OffHeapBlockStorage.ENABLED);
+        MinecraftEnvironment.init();
+        MinecraftServer server = MinecraftEnvironment.createFakeServer();
+        File save = folder.newFolder("save");
+        long usedBefore = OffHeapBlockStorage.getUsedBytes();
+
+        // load, unload, then load the same world again from the save
+        for (int i = 0; i < 2; i++) {
+            ICubicWorldServer world = createWorld(server, save);
+            for (int x = -1; x <= 1; x++) {
+                for (int y = -2; y <= 1; y++) {
+                    for (int z = -1; z <= 1; z++) {
+                        world.getCubeCache().getCube(x, y, z);
+                    }
+                }
+            }
+            assertThat(OffHeapBlockStorage.getUsedBytes(), greaterThan(usedBefore));
+
+            world.getCubeCache().saveChunks(true);
+            world.getCubeCache().flush();
+            new CommonEventHandler().onWorldUnload(new WorldEvent.Unload((World) world));
+            assertEquals(usedBefore, OffHeapBlockStorage.getUsedBytes());
+        }
+    }
+
+    private static ICubicWorldServer createWorld(MinecraftServer server, File save) {
+        AnvilSaveHandler saveHandler = new AnvilSaveHandler(save, "world", false, new DataFixer(512));
+        WorldSettings settings = new WorldSettings(0, GameType.SURVIVAL, false, false, new FlatCubicWorldType());
+        WorldInfo worldInfo = new WorldInfo(settings, "test");
+        ICubicWorldServer world = (ICubicWorldServer) new WorldServer(server, saveHandler, worldInfo, 0, new Profiler());
+        world.initCubicWorld();
+        return world;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.entity;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.mojang.authlib.GameProfile;
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.Coords;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.type.FlatCubicWorldType;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.item.EntityArmorStand;
+import net.minecraft.entity.player.EntityPlayerMP;
+import net.minecraft.network.NetHandlerPlayServer;
+import net.minecraft.profiler.Profiler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.management.PlayerInteractionManager;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.world.GameType;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.chunk.storage.AnvilSaveHandler;
+import net.minecraft.world.storage.WorldInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that entities are tracked by players that move near them and untracked when they move away, with players and
+ * entities looked up by cube instead of checking all of them.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubicEntityTracker {
+
+    private static final int TRACKING_RANGE = 64;
+
+    @Nonnull @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTrackingFollowsPlayerMovement() throws IOException {
+        MinecraftEnvironment.init();
+        MinecraftServer server = MinecraftEnvironment.createFakeServer();
+        when(server.getPlayerList().getEntityViewDistance()).thenReturn(TRACKING_RANGE * 2);
+        WorldServer world = createWorld(server);
+        CubicEntityTracker tracker = ((ICubicWorldServer) world).getCubicEntityTracker();
+
+        EntityArmorStand entity = new EntityArmorStand(world);
+        // spawned regardless of which chunks the player is watching
+        entity.forceSpawn = true;
+        moveTo(entity, 8, 8, 8);
+        tracker.track(entity, TRACKING_RANGE, 1, false);
+
+        EntityPlayerMP player = new EntityPlayerMP(server, world, new GameProfile(UUID.randomUUID(), "test"),
+                new PlayerInteractionManager(world));
+        player.connection = mock(NetHandlerPlayServer.class);
+        moveTo(player, 8 + TRACKING_RANGE * 8, 8, 8);
+        world.playerEntities.add(player);
+        tracker.track(player, TRACKING_RANGE * 8, 2, false);
+
+        tracker.tick();
+        assertFalse(tracker.getTrackingPlayers(entity).contains(player));
+
+        moveTo(player, 8 + TRACKING_RANGE / 2, 8, 8);
+        tracker.tick();
+        assertTrue(tracker.getTrackingPlayers(entity).contains(player));
+
+        moveTo(player, 8 + TRACKING_RANGE * 8, 8, 8);
+        tracker.tick();
+        assertFalse(tracker.getTrackingPlayers(entity).contains(player));
+    }
+
+    @Test
+    public void testRemovedPlayerDoesNotTrackNewEntities() throws IOException {
+        MinecraftEnvironment.init();
+        MinecraftServer server = MinecraftEnvironment.createFakeServer();
+        when(server.getPlayerList().getEntityViewDistance()).thenReturn(TRACKING_RANGE * 2);
+        WorldServer world = createWorld(server);
+        CubicEntityTracker tracker = ((ICubicWorldServer) world).getCubicEntityTracker();
+
+        EntityPlayerMP player = new EntityPlayerMP(server, world, new GameProfile(UUID.randomUUID(), "test"),
+                new PlayerInteractionManager(world));
+        player.connection = mock(NetHandlerPlayServer.class);
+        moveTo(player, 8, 8, 8);
+        world.playerEntities.add(player);
+        tracker.track(player, TRACKING_RANGE * 8, 2, false);
+        tracker.tick();
+
+        // the player leaves the world in the middle of the tick, before the entity is spawned
+        world.playerEntities.remove(player);
+        tracker.untrack(player);
+
+        EntityArmorStand entity = new EntityArmorStand(world);
+        entity.forceSpawn = true;
+        moveTo(entity, 8, 8, 8);
+        tracker.track(entity, TRACKING_RANGE, 1, false);
+        assertFalse(tracker.getTrackingPlayers(entity).contains(player));
+    }
+
+    private static void moveTo(Entity entity, double x, double y, double z) {
+        entity.setPosition(x, y, z);
+        entity.chunkCoordX = Coords.getCubeXForEntity(entity);
+        entity.chunkCoordY = Coords.getCubeYForEntity(entity);
+        entity.chunkCoordZ = Coords.getCubeZForEntity(entity);
+    }
+
+    private WorldServer createWorld(MinecraftServer server) throws IOException {
+        AnvilSaveHandler saveHandler = new AnvilSaveHandler(folder.newFolder("save"), "world", false, new DataFixer(512));
+        WorldSettings settings = new WorldSettings(0, GameType.SURVIVAL, false, false, new FlatCubicWorldType());
+        WorldInfo worldInfo = new WorldInfo(settings, "test");
+        WorldServer world = new WorldServer(server, saveHandler, worldInfo, 0, new Profiler());
+        ((ICubicWorldServer) world).initCubicWorld();
+        return world;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.CubePos;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that {@link PacketCubeBlockChange} decodes to the same changes it was encoded from.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeBlockChangeEncoding {
+
+    private static final CubePos POS = new CubePos(-1, 2, -3);
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testPaletteOfOne() {
+        short[] addresses = {1, 2, 3, 100, 2000};
+        IBlockState[] states = new IBlockState[addresses.length];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = Blocks.STONE.getDefaultState();
+        }
+        verifyRoundTrip(packet(addresses, states));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testPaletteOfMany() {
+        List<IBlockState> allStates = new ArrayList<>();
+        Block.BLOCK_STATE_IDS.forEach(allStates::add);
+        short[] addresses = new short[200];
+        IBlockState[] states = new IBlockState[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = (short) (i * 20);
+            // some states repeat, so palette indices are reused
+            states[i] = allStates.get((i * 7) % Math.min(allStates.size(), 150));
+        }
+        verifyRoundTrip(packet(addresses, states));
+    }
+
+    @Test
+    public void testFirstAndLastAddress() {
+        short[] addresses = {0, 4095};
+        IBlockState[] states = {Blocks.DIRT.getDefaultState(), Blocks.GLASS.getDefaultState()};
+        verifyRoundTrip(packet(addresses, states));
+    }
+
+    @Test
+    public void testTileEntities() {
+        short[] addresses = {0, 17, 4095};
+        IBlockState[] states = {Blocks.CHEST.getDefaultState(), Blocks.AIR.getDefaultState(), Blocks.FURNACE.getDefaultState()};
+        PacketCubeBlockChange packet = packet(addresses, states);
+        packet.tileEntityAddresses = new short[]{0, 4095};
+        packet.tileEntityTypes = new int[]{1, 2};
+        packet.tileEntityTags = new NBTTagCompound[]{new NBTTagCompound(), new NBTTagCompound()};
+        packet.tileEntityTags[0].setString("id", "minecraft:chest");
+        packet.tileEntityTags[1].setInteger("BurnTime", 100);
+        verifyRoundTrip(packet);
+    }
+
+    private static PacketCubeBlockChange packet(short[] addresses, IBlockState[] states) {
+        PacketCubeBlockChange packet = new PacketCubeBlockChange();
+        packet.cubePos = POS;
+        packet.localAddresses = addresses;
+        packet.blockStates = states;
+        packet.heightValues = new int[]{0x0F | 5 << 4 | 20 << 8, 3 | -7 << 8};
+        packet.tileEntityAddresses = new short[0];
+        packet.tileEntityTypes = new int[0];
+        packet.tileEntityTags = new NBTTagCompound[0];
+        return packet;
+    }
+
+    private static void verifyRoundTrip(PacketCubeBlockChange packet) {
+        ByteBuf buf = Unpooled.buffer();
+        packet.toBytes(buf);
+        PacketCubeBlockChange decoded = new PacketCubeBlockChange();
+        decoded.fromBytes(buf);
+        assertFalse("unread bytes", buf.isReadable());
+
+        assertEquals(packet.cubePos, decoded.cubePos);
+        assertArrayEquals(packet.localAddresses, decoded.localAddresses);
+        assertArrayEquals(packet.blockStates, decoded.blockStates);
+        assertArrayEquals(packet.heightValues, decoded.heightValues);
+        assertArrayEquals(packet.tileEntityAddresses, decoded.tileEntityAddresses);
+        assertArrayEquals(packet.tileEntityTypes, decoded.tileEntityTypes);
+        assertArrayEquals(packet.tileEntityTags, decoded.tileEntityTags);
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.CubePos;
+import cubicchunks.world.cube.Cube;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Checks that encoding from a {@link CubeSnapshot} gives exactly the same bytes as encoding directly from cube
+ * storage, as done on the server thread before encoding was moved off it. The only difference is the sky light flag
+ * in the cube type, which is checked separately.
+ */
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeSnapshotEncoding {
+
+    private static final CubePos POS = new CubePos(1, -2, 3);
+    // cube type byte follows the cube position and data length
+    private static final int TYPE_OFFSET = 4 * Integer.BYTES;
+    private static final int FLAG_HAS_SKY = 0x80;
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testNoStorage() {
+        verifySame(null, true);
+        verifySame(null, false);
+    }
+
+    @Test
+    public void testEmptyUniformLight() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        fillLight(storage, 3, 15);
+        verifySame(storage, true);
+    }
+
+    @Test
+    public void testEmptyVaryingLight() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        storage.setExtSkylightValue(5, 6, 7, 15);
+        storage.setExtBlocklightValue(1, 2, 3, 4);
+        verifySame(storage, true);
+    }
+
+    @Test
+    public void testUniformStone() {
+        ExtendedBlockStorage storage = filled(Blocks.STONE.getDefaultState(), false);
+        verifySame(storage, false);
+    }
+
+    @Test
+    public void testUniformBlocksVaryingLight() {
+        ExtendedBlockStorage storage = filled(Blocks.STONE.getDefaultState(), true);
+        storage.setExtBlocklightValue(15, 15, 15, 1);
+        verifySame(storage, true);
+    }
+
+    @Test
+    public void testUniformAfterPaletteGrew() {
+        // the palette still contains dirt, but all blocks are stone
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        storage.set(0, 0, 0, Blocks.DIRT.getDefaultState());
+        fill(storage, Blocks.STONE.getDefaultState());
+        storage.removeInvalidBlocks();
+        verifySame(storage, true);
+    }
+
+    @Test
+    public void testMixedBlocks() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        Random rand = new Random(42);
+        IBlockState[] states = {Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(), Blocks.AIR.getDefaultState(),
+                Blocks.GLASS.getDefaultState(), Blocks.GRASS.getDefaultState()};
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, states[rand.nextInt(states.length)]);
+            storage.setExtSkylightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, rand.nextInt(16));
+        }
+        storage.removeInvalidBlocks();
+        verifySame(storage, true);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testGlobalPalette() {
+        // more than 256 different states, so the global registry is used instead of a palette
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, false);
+        List<IBlockState> states = new ArrayList<>();
+        Block.BLOCK_STATE_IDS.forEach(states::add);
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, states.get(i % Math.min(states.size(), 300)));
+        }
+        storage.removeInvalidBlocks();
+        verifySame(storage, false);
+    }
+
+    @Test
+    public void testTileEntityTags() {
+        ExtendedBlockStorage storage = filled(Blocks.STONE.getDefaultState(), true);
+        NBTTagCompound tag = new NBTTagCompound();
+        tag.setInteger("x", 16);
+        tag.setInteger("y", -32);
+        tag.setInteger("z", 48);
+        tag.setString("id", "minecraft:chest");
+        List<NBTTagCompound> tags = Collections.singletonList(tag);
+
+        byte[] expected = referencePacket(storage, true, tags);
+        byte[] actual = encodeWithoutSkyFlag(new CubeSnapshot(POS, storage, true, tags), true);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testDecodeWithSky() {
+        ExtendedBlockStorage storage = filled(Blocks.STONE.getDefaultState(), true);
+        storage.setExtSkylightValue(1, 2, 3, 7);
+        storage.setExtBlocklightValue(4, 5, 6, 9);
+
+        ExtendedBlockStorage decoded = encodeAndDecode(storage, true);
+        assertNotNull(decoded);
+        assertNotNull(decoded.getSkylightArray());
+        assertArrayEquals(storage.getSkylightArray().getData(), decoded.getSkylightArray().getData());
+        assertArrayEquals(storage.getBlocklightArray().getData(), decoded.getBlocklightArray().getData());
+        assertEquals(Blocks.STONE.getDefaultState(), decoded.get(8, 8, 8));
+    }
+
+    @Test
+    public void testDecodeWithoutSky() {
+        ExtendedBlockStorage storage = filled(Blocks.STONE.getDefaultState(), false);
+        storage.setExtBlocklightValue(4, 5, 6, 9);
+
+        ExtendedBlockStorage decoded = encodeAndDecode(storage, false);
+        assertNotNull(decoded);
+        assertNull(decoded.getSkylightArray());
+        assertArrayEquals(storage.getBlocklightArray().getData(), decoded.getBlocklightArray().getData());
+    }
+
+    private static void verifySame(@Nullable ExtendedBlockStorage storage, boolean hasSky) {
+        byte[] expected = referencePacket(storage, hasSky, Collections.emptyList());
+        byte[] actual = encodeWithoutSkyFlag(new CubeSnapshot(POS, storage, hasSky, Collections.emptyList()), hasSky);
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * Encodes the snapshot, checks the sky light flag in the cube type and clears it, so that the result can be
+     * compared with the reference encoder
+     */
+    private static byte[] encodeWithoutSkyFlag(CubeSnapshot snapshot, boolean hasSky) {
+        byte[] packet = PacketCube.encode(snapshot);
+        assertEquals(hasSky, (packet[TYPE_OFFSET] & FLAG_HAS_SKY) != 0);
+        packet[TYPE_OFFSET] &= ~FLAG_HAS_SKY;
+        return packet;
+    }
+
+    @Nullable
+    private static ExtendedBlockStorage encodeAndDecode(ExtendedBlockStorage storage, boolean hasSky) {
+        byte[] packet = PacketCube.encode(new CubeSnapshot(POS, storage, hasSky, Collections.emptyList()));
+        ByteBuf buf = Unpooled.wrappedBuffer(packet);
+        buf.skipBytes(TYPE_OFFSET);
+        return WorldEncoder.decodeCubeStorage(new PacketBuffer(buf), POS.getY());
+    }
+
+    private static ExtendedBlockStorage filled(IBlockState state, boolean hasSky) {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, hasSky);
+        fill(storage, state);
+        storage.removeInvalidBlocks();
+        return storage;
+    }
+
+    private static void fill(ExtendedBlockStorage storage, IBlockState state) {
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, state);
+        }
+    }
+
+    private static void fillLight(ExtendedBlockStorage storage, int blockLight, int skyLight) {
+        for (int i = 0; i < 4096; i++) {
+            storage.setExtBlocklightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, blockLight);
+            storage.setExtSkylightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, skyLight);
+        }
+    }
+
+    // the encoder as it worked on live cube storage, on the server thread
+
+    private static byte[] referencePacket(@Nullable ExtendedBlockStorage storage, boolean hasSky, List<NBTTagCompound> tags) {
+        ByteBuf dataBuf = Unpooled.buffer();
+        referenceEncodeCube(new PacketBuffer(dataBuf), storage, hasSky);
+        byte[] data = new byte[dataBuf.readableBytes()];
+        dataBuf.readBytes(data);
+
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(POS.getX());
+        buf.writeInt(POS.getY());
+        buf.writeInt(POS.getZ());
+        buf.writeInt(data.length);
+        buf.writeBytes(data);
+        buf.writeInt(tags.size());
+        for (NBTTagCompound tag : tags) {
+            ByteBufUtils.writeTag(buf, tag);
+        }
+        byte[] packet = new byte[buf.readableBytes()];
+        buf.readBytes(packet);
+        return packet;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void referenceEncodeCube(PacketBuffer out, @Nullable ExtendedBlockStorage storage, boolean hasSky) {
+        byte type = referenceGetType(storage, hasSky);
+        out.writeByte(type);
+
+        switch (type) {
+            case 0:
+                break;
+            case 1:
+                ByteBufUtils.writeVarInt(out, Block.BLOCK_STATE_IDS.get(storage.get(0, 0, 0)), 4);
+                out.writeByte(storage.getExtBlocklightValue(0, 0, 0));
+                if (hasSky) {
+                    out.writeByte(storage.getExtSkylightValue(0, 0, 0));
+                }
+                break;
+            case 3:
+                storage.getData().write(out);
+                // fall through
+            case 2:
+                out.writeBytes(storage.getBlocklightArray().getData());
+                if (hasSky) {
+                    out.writeBytes(storage.getSkylightArray().getData());
+                }
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static byte referenceGetType(@Nullable ExtendedBlockStorage storage, boolean hasSky) {
+        if (storage == null) {
+            return 0;
+        }
+        boolean uniformLight = isUniform(storage.getBlocklightArray()) && (!hasSky || isUniform(storage.getSkylightArray()));
+        if (storage.isEmpty()) {
+            return (byte) (uniformLight ? 1 : 2);
+        }
+        if (!uniformLight) {
+            return 3;
+        }
+        IBlockState first = storage.get(0, 0, 0);
+        for (int y = 0; y < Cube.SIZE; y++) {
+            for (int z = 0; z < Cube.SIZE; z++) {
+                for (int x = 0; x < Cube.SIZE; x++) {
+                    if (storage.get(x, y, z) != first) {
+                        return 3;
+                    }
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static boolean isUniform(NibbleArray array) {
+        byte[] data = array.getData();
+        byte first = data[0];
+        if ((first & 0xF) != ((first >> 4) & 0xF)) {
+            return false;
+        }
+        for (byte b : data) {
+            if (b != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.cursors.LongCursor;
+import cubicchunks.util.AddressTools;
+import cubicchunks.util.CubePos;
+import cubicchunks.visibility.CubeSelector;
+import cubicchunks.visibility.CuboidalCubeSelector;
+import cubicchunks.visibility.EllipsoidalCubeSelector;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestAdaptiveVerticalSelection {
+
+    private static final int HORIZONTAL = 6;
+    private static final int VERTICAL = 8;
+
+    @Test public void testSkipsCubesAwayFromSurfaceAndPlayer() {
+        AdaptiveVerticalSelection selection = new AdaptiveVerticalSelection();
+        LongHashSet selected = new LongHashSet();
+        // flat surface at cube y 0, player high above it
+        update(selection, new CuboidalCubeSelector(), new CubePos(0, 7, 0), (x, z, out) -> {
+            out[0] = 0;
+            out[1] = 0;
+            return true;
+        }, selected);
+
+        assertTrue(selected.contains(AddressTools.getAddress(3, 0, 3)));
+        assertTrue(selected.contains(AddressTools.getAddress(3, -1, 3)));
+        assertTrue(selected.contains(AddressTools.getAddress(3, 1, 3)));
+        assertTrue(selected.contains(AddressTools.getAddress(3, 7 + AdaptiveVerticalSelection.NEAR_DISTANCE, 3)));
+        assertFalse(selected.contains(AddressTools.getAddress(3, 4, 3)));
+        assertFalse(selected.contains(AddressTools.getAddress(3, -2, 3)));
+    }
+
+    @Test public void testUnknownSurfaceSelectsFullColumn() {
+        AdaptiveVerticalSelection selection = new AdaptiveVerticalSelection();
+        LongHashSet selected = new LongHashSet();
+        CuboidalCubeSelector selector = new CuboidalCubeSelector();
+        CubePos pos = new CubePos(1, 2, 3);
+        update(selection, selector, pos, (x, z, out) -> false, selected);
+
+        LongHashSet expected = new LongHashSet();
+        selector.forAllVisibleFrom(pos, HORIZONTAL, VERTICAL, cubePos -> expected.add(AddressTools.getAddress(cubePos.getX(), cubePos.getY(), cubePos.getZ())));
+        assertEquals(expected, selected);
+    }
+
+    @Test public void testDifferencesMatchSelection() {
+        testDifferencesMatchSelection(new CuboidalCubeSelector());
+        testDifferencesMatchSelection(new EllipsoidalCubeSelector());
+    }
+
+    private void testDifferencesMatchSelection(CubeSelector selector) {
+        Random rand = new Random(42);
+        AdaptiveVerticalSelection selection = new AdaptiveVerticalSelection();
+        LongHashSet selected = new LongHashSet();
+        CubePos pos = new CubePos(0, 0, 0);
+        for (int i = 0; i < 100; i++) {
+            pos = pos.add(rand.nextInt(5) - 2, rand.nextInt(7) - 3, rand.nextInt(5) - 2);
+            int seed = rand.nextInt();
+            AdaptiveVerticalSelection.SurfaceSource surface = (x, z, out) -> {
+                int hash = (x * 31 + z) * 31 + seed;
+                if ((hash & 7) == 0) {
+                    return false;
+                }
+                out[0] = (hash >> 3) % 10;
+                out[1] = out[0] + ((hash >> 8) & 3);
+                return true;
+            };
+            update(selection, selector, pos, surface, selected);
+
+            LongHashSet expected = new LongHashSet();
+            int[] buffer = new int[2];
+            for (int x = pos.getX() - HORIZONTAL; x <= pos.getX() + HORIZONTAL; x++) {
+                for (int z = pos.getZ() - HORIZONTAL; z <= pos.getZ() + HORIZONTAL; z++) {
+                    int radius = selector.getColumnVerticalRadius(x - pos.getX(), z - pos.getZ(), HORIZONTAL, VERTICAL);
+                    if (radius < 0) {
+                        continue;
+                    }
+                    int[] ranges = AdaptiveVerticalSelection.getRanges(x, z, pos.getY(), radius, surface, buffer);
+                    for (int y = pos.getY() - radius; y <= pos.getY() + radius; y++) {
+                        if ((y >= ranges[0] && y <= ranges[1]) || (y >= ranges[2] && y <= ranges[3])) {
+                            expected.add(AddressTools.getAddress(x, y, z));
+                        }
+                    }
+                }
+            }
+            assertEquals(expected, selected);
+        }
+        LongArrayList removed = new LongArrayList();
+        selection.clear(removed);
+        for (LongCursor cursor : removed) {
+            assertTrue(selected.remove(cursor.value));
+        }
+        assertTrue(selected.isEmpty());
+    }
+
+    private static void update(AdaptiveVerticalSelection selection, CubeSelector selector, CubePos pos,
+            AdaptiveVerticalSelection.SurfaceSource surface, LongHashSet selected) {
+        LongArrayList toRemove = new LongArrayList();
+        LongArrayList toLoad = new LongArrayList();
+        selection.update(selector, pos, HORIZONTAL, VERTICAL, surface, toRemove, toLoad);
+        for (LongCursor cursor : toLoad) {
+            assertTrue(selected.add(cursor.value));
+        }
+        for (LongCursor cursor : toRemove) {
+            assertTrue(selected.remove(cursor.value));
+        }
+    }
+}
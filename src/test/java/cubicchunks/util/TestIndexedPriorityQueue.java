@@ -0,0 +1,114 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TestIndexedPriorityQueue {
+
+    @Test public void testPollOrder() {
+        Random rand = new Random(42);
+        Map<Integer, Double> keys = new HashMap<>();
+        IndexedPriorityQueue<Integer> queue = new IndexedPriorityQueue<>(keys::get);
+        for (int i = 0; i < 1000; i++) {
+            keys.put(i, rand.nextDouble());
+            queue.add(i);
+        }
+        assertEquals(1000, queue.size());
+        double previous = Double.NEGATIVE_INFINITY;
+        while (!queue.isEmpty()) {
+            double peekedKey = queue.peekPriority();
+            Integer element = queue.poll();
+            double key = keys.get(element);
+            assertEquals(key, peekedKey, 0);
+            assertTrue(key >= previous);
+            previous = key;
+        }
+        assertNull(queue.poll());
+        assertEquals(Double.POSITIVE_INFINITY, queue.peekPriority(), 0);
+    }
+
+    @Test public void testRemoveAndUpdate() {
+        Random rand = new Random(42);
+        Map<Integer, Double> keys = new HashMap<>();
+        IndexedPriorityQueue<Integer> queue = new IndexedPriorityQueue<>(keys::get);
+        for (int i = 0; i < 1000; i++) {
+            keys.put(i, rand.nextDouble());
+            queue.add(i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            assertTrue(queue.remove(i));
+            assertFalse(queue.contains(i));
+            assertFalse(queue.remove(i));
+        }
+        for (int i = 1; i < 1000; i += 3) {
+            keys.put(i, rand.nextDouble());
+            queue.update(i);
+        }
+        assertPolledInOrder(queue, keys, 1000 - 334);
+    }
+
+    @Test public void testUpdateAllAndRemoveIf() {
+        Random rand = new Random(42);
+        Map<Integer, Double> keys = new HashMap<>();
+        IndexedPriorityQueue<Integer> queue = new IndexedPriorityQueue<>(keys::get);
+        for (int i = 0; i < 1000; i++) {
+            keys.put(i, rand.nextDouble());
+            queue.add(i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            keys.put(i, rand.nextDouble());
+        }
+        queue.updateAll();
+        queue.removeIf(i -> i % 2 == 0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 != 0, queue.contains(i));
+        }
+        assertPolledInOrder(queue, keys, 500);
+    }
+
+    private void assertPolledInOrder(IndexedPriorityQueue<Integer> queue, Map<Integer, Double> keys, int expectedSize) {
+        List<Integer> polled = new ArrayList<>();
+        double previous = Double.NEGATIVE_INFINITY;
+        while (!queue.isEmpty()) {
+            Integer element = queue.poll();
+            double key = keys.get(element);
+            assertTrue(key >= previous);
+            previous = key;
+            polled.add(element);
+        }
+        assertEquals(expectedSize, polled.size());
+    }
+}
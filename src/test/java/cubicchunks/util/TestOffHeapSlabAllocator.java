@@ -0,0 +1,73 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestOffHeapSlabAllocator {
+
+    @Test public void testAllocateReservesWholeSlab() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(16, 4);
+        allocator.allocate();
+        assertEquals(16, allocator.getUsedBytes());
+        assertEquals(64, allocator.getReservedBytes());
+    }
+
+    @Test public void testFreedSlotIsReusedAndCleared() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(16, 1);
+        OffHeapSlabAllocator.Slot slot = allocator.allocate();
+        slot.putChar(2, 'x');
+        slot.putByte(15, (byte) 42);
+        allocator.free(slot);
+        assertEquals(0, allocator.getUsedBytes());
+
+        OffHeapSlabAllocator.Slot reused = allocator.allocate();
+        assertEquals(0, reused.getChar(2));
+        assertEquals(0, reused.getByte(15));
+        assertEquals(16, allocator.getReservedBytes());
+    }
+
+    @Test public void testSlotsDontOverlap() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(8, 2);
+        OffHeapSlabAllocator.Slot a = allocator.allocate();
+        OffHeapSlabAllocator.Slot b = allocator.allocate();
+        for (int i = 0; i < 8; i++) {
+            a.putByte(i, (byte) 1);
+            b.putByte(i, (byte) 2);
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(1, a.getByte(i));
+            assertEquals(2, b.getByte(i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class) public void testDoubleFree() {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(8, 1);
+        OffHeapSlabAllocator.Slot slot = allocator.allocate();
+        allocator.free(slot);
+        allocator.free(slot);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.visibility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.cursors.LongCursor;
+import cubicchunks.util.AddressTools;
+import cubicchunks.util.CubePos;
+import net.minecraft.util.math.ChunkPos;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class TestCubeSelectors {
+
+    private static final int HORIZONTAL = 5;
+    private static final int VERTICAL = 3;
+
+    @Test public void testCuboidalFindChanged() {
+        testFindChangedMatchesVisibleSetDifference(new CuboidalCubeSelector());
+    }
+
+    @Test public void testEllipsoidalFindChanged() {
+        testFindChangedMatchesVisibleSetDifference(new EllipsoidalCubeSelector());
+    }
+
+    @Test public void testEllipsoidalViewDistanceDecrease() {
+        EllipsoidalCubeSelector selector = new EllipsoidalCubeSelector();
+        CubePos pos = new CubePos(3, -2, 7);
+        Set<CubePos> cubesToUnload = new HashSet<>();
+        Set<ChunkPos> columnsToUnload = new HashSet<>();
+        selector.findAllUnloadedOnViewDistanceDecrease(pos, HORIZONTAL + 3, HORIZONTAL, VERTICAL + 2, VERTICAL, cubesToUnload, columnsToUnload);
+
+        Set<CubePos> oldCubes = new HashSet<>();
+        selector.forAllVisibleFrom(pos, HORIZONTAL + 3, VERTICAL + 2, oldCubes::add);
+        Set<CubePos> newCubes = new HashSet<>();
+        selector.forAllVisibleFrom(pos, HORIZONTAL, VERTICAL, newCubes::add);
+        oldCubes.removeAll(newCubes);
+        assertEquals(oldCubes, cubesToUnload);
+        assertTrue(columnsToUnload.stream().noneMatch(column -> newCubes.stream().anyMatch(cube -> cube.chunkPos().equals(column))));
+    }
+
+    @Test public void testEllipsoidalSelectsAboutHalfOfCuboid() {
+        int[] cuboid = new int[1];
+        int[] ellipsoid = new int[1];
+        new CuboidalCubeSelector().forAllVisibleFrom(new CubePos(0, 0, 0), 16, 16, pos -> cuboid[0]++);
+        new EllipsoidalCubeSelector().forAllVisibleFrom(new CubePos(0, 0, 0), 16, 16, pos -> ellipsoid[0]++);
+        double ratio = ellipsoid[0] / (double) cuboid[0];
+        assertTrue("ratio = " + ratio, ratio > 0.45 && ratio < 0.6);
+    }
+
+    private void testFindChangedMatchesVisibleSetDifference(CubeSelector selector) {
+        Random rand = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            CubePos oldPos = new CubePos(rand.nextInt(20) - 10, rand.nextInt(20) - 10, rand.nextInt(20) - 10);
+            CubePos newPos = oldPos.add(rand.nextInt(5) - 2, rand.nextInt(5) - 2, rand.nextInt(5) - 2);
+            if (i % 10 == 0) {
+                // also test jumps further than view distance
+                newPos = oldPos.add(rand.nextInt(41) - 20, rand.nextInt(41) - 20, rand.nextInt(41) - 20);
+            }
+
+            LongArrayList cubesToRemove = new LongArrayList();
+            LongArrayList cubesToLoad = new LongArrayList();
+            LongArrayList columnsToRemove = new LongArrayList();
+            LongArrayList columnsToLoad = new LongArrayList();
+            selector.findChanged(oldPos, newPos, HORIZONTAL, VERTICAL, cubesToRemove, cubesToLoad, columnsToRemove, columnsToLoad);
+
+            Set<Long> oldCubes = visibleCubes(selector, oldPos);
+            Set<Long> newCubes = visibleCubes(selector, newPos);
+            Set<Long> oldColumns = visibleColumns(selector, oldPos);
+            Set<Long> newColumns = visibleColumns(selector, newPos);
+
+            assertEquals(difference(newCubes, oldCubes), toSet(cubesToLoad));
+            assertEquals(difference(oldCubes, newCubes), toSet(cubesToRemove));
+            assertEquals(difference(newColumns, oldColumns), toSet(columnsToLoad));
+            assertEquals(difference(oldColumns, newColumns), toSet(columnsToRemove));
+        }
+    }
+
+    private Set<Long> visibleCubes(CubeSelector selector, CubePos pos) {
+        Set<Long> cubes = new HashSet<>();
+        selector.forAllVisibleFrom(pos, HORIZONTAL, VERTICAL, p -> cubes.add(AddressTools.getAddress(p.getX(), p.getY(), p.getZ())));
+        return cubes;
+    }
+
+    private Set<Long> visibleColumns(CubeSelector selector, CubePos pos) {
+        Set<Long> columns = new HashSet<>();
+        selector.forAllVisibleFrom(pos, HORIZONTAL, VERTICAL, p -> columns.add(AddressTools.getAddress(p.getX(), p.getZ())));
+        return columns;
+    }
+
+    private Set<Long> difference(Set<Long> a, Set<Long> b) {
+        Set<Long> result = new HashSet<>(a);
+        result.removeAll(b);
+        return result;
+    }
+
+    // also checks for duplicates
+    private Set<Long> toSet(LongArrayList list) {
+        Set<Long> set = new HashSet<>();
+        for (LongCursor cursor : list) {
+            set.add(cursor.value);
+        }
+        assertEquals(list.size(), set.size());
+        return set;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCompressedStorage {
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testEmpty() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        CompressedStorage compressed = CompressedStorage.compress(storage, true);
+        assertTrue(compressed.isEmpty());
+        verifyRoundTrip(storage, true);
+    }
+
+    @Test
+    public void testUniformCube() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, Blocks.STONE.getDefaultState());
+            storage.setExtSkylightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, 15);
+        }
+        CompressedStorage compressed = CompressedStorage.compress(storage, true);
+        // one palette entry, one block run and one run for each light array
+        assertTrue("size " + compressed.getSize(), compressed.getSize() < 32);
+        verifyRoundTrip(storage, true);
+    }
+
+    @Test
+    public void testRandomStates() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        Random rand = new Random(42);
+        IBlockState[] states = {Blocks.STONE.getDefaultState(), Blocks.DIRT.getDefaultState(), Blocks.AIR.getDefaultState(),
+                Blocks.GLASS.getDefaultState(), Blocks.GRASS.getDefaultState()};
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, states[rand.nextInt(states.length)]);
+        }
+        verifyRoundTrip(storage, true);
+    }
+
+    @Test
+    public void testMixedLight() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        Random rand = new Random(42);
+        for (int i = 0; i < 4096; i++) {
+            // runs of random length, so that both long runs and single values are encoded
+            int blockLight = i < 1000 ? 0 : rand.nextInt(16);
+            int skyLight = i % 300 < 150 ? 15 : rand.nextInt(16);
+            storage.setExtBlocklightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, blockLight);
+            storage.setExtSkylightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, skyLight);
+        }
+        storage.set(3, 4, 5, Blocks.GLOWSTONE.getDefaultState());
+        verifyRoundTrip(storage, true);
+    }
+
+    @Test
+    public void testNoSky() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, false);
+        Random rand = new Random(42);
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, rand.nextBoolean() ? Blocks.NETHERRACK.getDefaultState() : Blocks.AIR.getDefaultState());
+            storage.setExtBlocklightValue(i & 0xF, i >> 8, (i >> 4) & 0xF, rand.nextInt(16));
+        }
+        ExtendedBlockStorage decompressed = verifyRoundTrip(storage, false);
+        assertNull(decompressed.getSkylightArray());
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testLargePalette() {
+        // palette indices and IDs above 127 take more than one varint byte
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        List<IBlockState> states = new ArrayList<>();
+        Block.BLOCK_STATE_IDS.forEach(states::add);
+        int paletteSize = Math.min(states.size(), 300);
+        assertTrue(paletteSize > 127);
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, states.get(i % paletteSize));
+        }
+        verifyRoundTrip(storage, true);
+    }
+
+    private static ExtendedBlockStorage verifyRoundTrip(ExtendedBlockStorage storage, boolean hasSky) {
+        CompressedStorage compressed = CompressedStorage.compress(storage, hasSky);
+        assertEquals(storage.isEmpty(), compressed.isEmpty());
+
+        ExtendedBlockStorage decompressed = new ExtendedBlockStorage(0, hasSky);
+        compressed.decompress(decompressed, hasSky);
+        assertEquals(storage.isEmpty(), decompressed.isEmpty());
+        for (int i = 0; i < 4096; i++) {
+            int x = i & 0xF, y = i >> 8, z = (i >> 4) & 0xF;
+            String msg = "at " + x + ", " + y + ", " + z;
+            assertSame(msg, storage.get(x, y, z), decompressed.get(x, y, z));
+            assertEquals(msg, storage.getExtBlocklightValue(x, y, z), decompressed.getExtBlocklightValue(x, y, z));
+            if (hasSky) {
+                assertEquals(msg, storage.getExtSkylightValue(x, y, z), decompressed.getExtSkylightValue(x, y, z));
+            }
+        }
+        return decompressed;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.world.cube;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import mcp.MethodsReturnNonnullByDefault;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.spongepowered.lwts.runner.LaunchWrapperTestRunner;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestFaceConnectivity {
+
+    @Before
+    public void setUp() {
+        MinecraftEnvironment.init();
+    }
+
+    @Test
+    public void testEmptyCube() {
+        assertEquals(FaceConnectivity.ALL_CONNECTED, FaceConnectivity.compute(null));
+        assertEquals(FaceConnectivity.ALL_CONNECTED, FaceConnectivity.compute(new ExtendedBlockStorage(0, true)));
+    }
+
+    @Test
+    public void testSolidCube() {
+        assertEquals(FaceConnectivity.NONE_CONNECTED, FaceConnectivity.compute(solid()));
+    }
+
+    @Test
+    public void testStraightTunnel() {
+        ExtendedBlockStorage storage = solid();
+        for (int x = 0; x < Cube.SIZE; x++) {
+            storage.set(x, 8, 8, Blocks.AIR.getDefaultState());
+        }
+        long connectivity = FaceConnectivity.compute(storage);
+        assertEquals(connected(EnumFacing.WEST, EnumFacing.EAST), connectivity);
+        assertTrue(FaceConnectivity.isConnected(connectivity, EnumFacing.WEST, EnumFacing.EAST));
+        assertTrue(FaceConnectivity.isConnected(connectivity, EnumFacing.EAST, EnumFacing.WEST));
+        assertFalse(FaceConnectivity.isConnected(connectivity, EnumFacing.WEST, EnumFacing.SOUTH));
+    }
+
+    @Test
+    public void testLShapedTunnel() {
+        ExtendedBlockStorage storage = solid();
+        for (int x = 0; x <= 8; x++) {
+            storage.set(x, 8, 8, Blocks.AIR.getDefaultState());
+        }
+        for (int z = 8; z < Cube.SIZE; z++) {
+            storage.set(8, 8, z, Blocks.AIR.getDefaultState());
+        }
+        long connectivity = FaceConnectivity.compute(storage);
+        assertEquals(connected(EnumFacing.WEST, EnumFacing.SOUTH), connectivity);
+        assertTrue(FaceConnectivity.isConnected(connectivity, EnumFacing.WEST, EnumFacing.SOUTH));
+        assertFalse(FaceConnectivity.isConnected(connectivity, EnumFacing.WEST, EnumFacing.EAST));
+        assertFalse(FaceConnectivity.isConnected(connectivity, EnumFacing.NORTH, EnumFacing.SOUTH));
+    }
+
+    private static ExtendedBlockStorage solid() {
+        ExtendedBlockStorage storage = new ExtendedBlockStorage(0, true);
+        for (int i = 0; i < 4096; i++) {
+            storage.set(i & 0xF, i >> 8, (i >> 4) & 0xF, Blocks.STONE.getDefaultState());
+        }
+        return storage;
+    }
+
+    // connectivity of a single open area touching all the given faces
+    private static long connected(EnumFacing... faces) {
+        long connectivity = FaceConnectivity.NONE_CONNECTED;
+        for (EnumFacing from : faces) {
+            for (EnumFacing to : faces) {
+                connectivity |= 1L << (from.getIndex() * 6 + to.getIndex());
+            }
+        }
+        return connectivity;
+    }
+}